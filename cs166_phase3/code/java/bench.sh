@@ -0,0 +1,14 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# JMH benchmarks of the ten menu operations, see bench/src/MechanicShopBenchmark.java.
+# Needs a running Postgres with the schema of ../sql/create.sql (see ../postgresql/)
+# and the JMH jars (jmh-core, jmh-generator-annprocess, jopt-simple, commons-math3)
+# in bench/lib/.  Options after the user are passed to JMH.
+#
+# Example: source ./bench.sh flightDB 5432 user -p scale=1,10 -t 8
+rm -rf bench/bin && mkdir -p bench/bin
+javac -cp "lib/*:bench/lib/*" src/*.java bench/src/*.java -d bench/bin/
+java -cp "lib/*:bench/lib/*:bench/bin/" org.openjdk.jmh.Main -p dbname=$DBNAME -p port=$PORT -p user=$USER "${@:4}"
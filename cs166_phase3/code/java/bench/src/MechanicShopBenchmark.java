@@ -0,0 +1,142 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the ten MechanicShop menu operations, run through the
+ * service methods against a local Postgres.  Every trial reloads the
+ * database from dataDir at the given scale factor (see BulkImport), so
+ * results of different runs are comparable.
+ *
+ * SampleTime reports latency percentiles (p50 ... p99.99) per operation,
+ * Throughput reports operations per millisecond.  Run with bench.sh.
+ */
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MechanicShopBenchmark {
+	@Param("mechanicshop")
+	public String dbname;
+	@Param("5432")
+	public String port;
+	@Param("postgres")
+	public String user;
+	//directory holding customer.csv, mechanic.csv, ...
+	@Param("../data")
+	public String dataDir;
+	//copies of the dataset loaded before each trial
+	@Param({"1"})
+	public int scale;
+	@Param("8")
+	public int poolSize;
+
+	private MechanicShop _shop;
+	//session the reports print to; its output is discarded
+	private MechanicShop _esql;
+	//(customer_id, car_vin) of every Owns row, to pick realistic pairs from
+	private ColumnarResult _owned;
+	private int _maxRid;
+	private int _maxMechanic;
+	private final AtomicInteger _counter = new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Class.forName("org.postgresql.Driver");
+		this._shop = new MechanicShop(this.dbname, this.port, this.user, "", this.poolSize);
+		new BulkImport(this._shop.pool(), this._shop.ids(), System.out).importDirectory(new File(this.dataDir), 3, true, this.scale);
+		this._esql = this._shop.newSession(null, new PrintStream(OutputStream.nullOutputStream()));
+		this._shop.loadServiceCounts();
+		this._shop.loadCustomerIndex();
+		this._shop.loadVinFilter();
+		this._owned = this._esql.executeQueryAndReturnColumns("SELECT customer_id, car_vin FROM Owns;");
+		this._maxRid = this._esql.executeQueryAndReturnColumns("SELECT MAX(rid) FROM Service_Request;").getInt(0, 0);
+		this._maxMechanic = this._esql.executeQueryAndReturnColumns("SELECT MAX(id) FROM Mechanic;").getInt(0, 0);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this._shop.cleanup();
+	}
+
+	@Benchmark
+	public int addCustomer() throws Exception {
+		return this._esql.addCustomer("Bench", "Mark", "(555)555-5555", "1 Benchmark Way");
+	}
+
+	@Benchmark
+	public int addMechanic() throws Exception {
+		return this._esql.addMechanic("Bench", "Mark", 5);
+	}
+
+	@Benchmark
+	public int addCar() throws Exception {
+		int owner = randomOwner();
+		String vin = String.format("BNC%013d", this._counter.incrementAndGet());
+		return this._esql.addCar(vin, "Toyota", "Prius", 2012, this._owned.getInt(owner, 0));
+	}
+
+	@Benchmark
+	public int insertServiceRequest() throws Exception {
+		int owner = randomOwner();
+		// readings only grow, so every insert passes the odometer check
+		int odometer = 1000000000 + this._counter.incrementAndGet();
+		return this._esql.insertServiceRequest(this._owned.getInt(owner, 0), this._owned.getString(owner, 1), odometer, "Benchmark");
+	}
+
+	@Benchmark
+	public int closeServiceRequest() throws Exception {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return this._esql.closeServiceRequest(random.nextInt(this._maxRid + 1), random.nextInt(this._maxMechanic + 1),
+			java.sql.Date.valueOf("2100-01-01"), "Benchmark", 1 + random.nextInt(500));
+	}
+
+	@Benchmark
+	public int listCustomersWithBillLessThan100() throws Exception {
+		return this._esql.listCustomersWithBillLessThan(100);
+	}
+
+	@Benchmark
+	public int listCustomersWithMoreThan20Cars() throws Exception {
+		return this._esql.listCustomersWithMoreCarsThan(20);
+	}
+
+	@Benchmark
+	public int listCarsBefore1995With50000Milles() throws Exception {
+		return this._esql.listCarsBeforeYearUnderMiles(1995, 50000);
+	}
+
+	@Benchmark
+	public int listKCarsWithTheMostServices() throws Exception {
+		return this._esql.listKCarsWithTheMostServices(10);
+	}
+
+	@Benchmark
+	public int listCustomersInDescendingOrderOfTheirTotalBill() throws Exception {
+		return this._esql.listCustomersByTotalBill();
+	}
+
+	//row of a random Owns pair in _owned
+	private int randomOwner() {
+		return ThreadLocalRandom.current().nextInt(this._owned.rowCount());
+	}
+}//end MechanicShopBenchmark
@@ -4,4 +4,30 @@ PORT=$2
 USER=$3
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER
+# Server mode, one process for all terminals (connect with: nc localhost 7777):
+#          source ./run.sh flightDB 5432 user server 7777 8
+# Load the CSV datasets without server file access:
+#          source ./run.sh flightDB 5432 user import ../data 3 truncate
+# Generate synthetic data at scale factor 10 with seed 42, replacing every table (or give an out dir for CSV files):
+#          source ./run.sh flightDB 5432 user generate 10 42 8 truncate
+# JSON API over HTTP (e.g. curl localhost:8080/reports/most-serviced-cars?k=10):
+#          source ./run.sh flightDB 5432 user http 8080 16
+# Replay a CSV script of menu operations (see src/BatchRunner.java), results on stdout:
+#          source ./run.sh flightDB 5432 user batch traffic.csv 4 > results.csv
+# Export a report or a table as CSV for a spreadsheet (see src/ReportExport.java):
+#          source ./run.sh flightDB 5432 user export customers-by-total-bill bills.csv
+#          source ./run.sh flightDB 5432 user export Closed_Request closed.csv.gz
+# Statement metrics are shown by menu option 12 and GET /metrics; to also write them to a file:
+#          JAVA_OPTS=-Dmechanicshop.metricsFile=/tmp/mechanicshop.prom source ./run.sh flightDB 5432 user http 8080 16
+# Statements slower than mechanicshop.slowQueryMillis (default 1000) are logged with their plan to slow-queries.log:
+#          JAVA_OPTS="-Dmechanicshop.slowQueryMillis=200 -Dmechanicshop.slowQueryLog=/tmp/slow.log" source ./run.sh flightDB 5432 user
+# Partition Service_Request and Closed_Request by month while the shop keeps running (see src/PartitionMigration.java):
+#          source ./run.sh flightDB 5432 user partition 10000
+# Soak test: 32 clerks at 200 operations/s for 2 hours, then only drop-offs (see src/LoadGenerator.java):
+#          source ./run.sh flightDB 5432 user load 32 200 120
+#          source ./run.sh flightDB 5432 user load 32 200 10 request=60,close=40
+# Acknowledge service requests once journaled locally and insert them in the background (see src/IntakeJournal.java):
+#          JAVA_OPTS=-Dmechanicshop.intakeJournal=intake.journal source ./run.sh flightDB 5432 user
+# Serve reports 6-10 from materialized snapshots refreshed every 5 minutes or after 500 inserts (see src/ReportSnapshots.java):
+#          JAVA_OPTS="-Dmechanicshop.snapshotRefreshSeconds=300 -Dmechanicshop.snapshotRefreshWrites=500" source ./run.sh flightDB 5432 user
+java $JAVA_OPTS -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER "${@:4}"
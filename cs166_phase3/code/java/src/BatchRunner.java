@@ -0,0 +1,277 @@
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class runs the menu operations from a script instead of a
+ * terminal, one operation per line, in CSV:
+ *
+ *	AddCustomer,fname,lname,phone,address
+ *	AddMechanic,fname,lname,experience
+ *	AddCar,vin,make,model,year,customer id
+ *	InsertServiceRequest,customer id,vin,odometer,complaint
+ *	CloseServiceRequest,rid,mechanic id,yyyy-mm-dd,comment,bill
+ *	ListCustomersWithBillLessThan100[,bill]
+ *	ListCustomersWithMoreThan20Cars[,cars]
+ *	ListCarsBefore1995With50000Milles[,year,miles]
+ *	ListKCarsWithTheMostServices,k
+ *	ListCustomersInDescendingOrderOfTheirTotalBill
+ *
+ * Fields may be quoted with double quotes to hold commas; empty lines and
+ * lines starting with # are skipped.
+ *
+ * Consecutive lines of the same insert operation (AddCustomer, AddMechanic,
+ * AddCar, InsertServiceRequest) are run as one batch in one transaction
+ * (see UnitOfWork).  When a batch fails, its lines are run again one by
+ * one so every line gets its own result.  With more than one thread,
+ * batches run at the same time on different pooled connections and lines
+ * may take effect out of order; results are always printed in order, one
+ * line per operation:
+ *
+ *	<line number>,<operation>,OK,<id or row count>
+ *	<line number>,<operation>,ERROR,<message>
+ *
+ * Reports are run but their rows are not printed, only their row count.
+ */
+public class BatchRunner {
+	public static final int BATCH_SIZE = 500;
+
+	/**
+	 * One line of the script.
+	 */
+	static class Op {
+		final long line;
+		final String name;
+		final String[] args;
+
+		Op(long line, String[] fields) {
+			this.line = line;
+			this.name = fields[0].trim();
+			this.args = new String[fields.length - 1];
+			System.arraycopy(fields, 1, this.args, 0, this.args.length);
+		}
+	}
+
+	//session the operations run in; reports print to nowhere
+	private final MechanicShop _esql;
+	private final PrintStream _results;
+	private final PrintStream _log;
+	private final int _threads;
+	private long _ok = 0;
+	private long _failed = 0;
+
+	/**
+	 * @param esql the MechanicShop to run the operations with
+	 * @param results where the result of every operation is printed
+	 * @param log where progress and the summary are printed
+	 * @param threads batches run at the same time
+	 */
+	public BatchRunner(MechanicShop esql, PrintStream results, PrintStream log, int threads) {
+		this._esql = esql.newSession(null, new PrintStream(OutputStream.nullOutputStream()));
+		this._results = results;
+		this._log = log;
+		this._threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Method to run every operation of a script.
+	 *
+	 * @return the number of operations that failed
+	 */
+	public long run(BufferedReader script) throws Exception {
+		long start = System.nanoTime();
+		ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+		ArrayDeque<Future<List<String>>> inFlight = new ArrayDeque<Future<List<String>>>();
+		try{
+			List<Op> group = new ArrayList<Op>();
+			long lineNumber = 0;
+			String line;
+			while ((line = script.readLine()) != null){
+				++lineNumber;
+				if (line.trim().isEmpty() || line.startsWith("#")) continue;
+				Op op = new Op(lineNumber, split(line));
+				if (!group.isEmpty() && (!batched(op.name) || !op.name.equals(group.get(0).name) || group.size() == BATCH_SIZE)){
+					submit(workers, inFlight, group);
+					group = new ArrayList<Op>();
+				}//end if
+				group.add(op);
+			}//end while
+			if (!group.isEmpty()) submit(workers, inFlight, group);
+			while (!inFlight.isEmpty()) print(inFlight.poll());
+		}finally{
+			workers.shutdownNow();
+		}//end try
+		double seconds = (System.nanoTime() - start) / 1e9;
+		this._log.printf("%d operations, %d failed, %.1f s, %.0f ops/s%n", this._ok + this._failed, this._failed, seconds, (this._ok + this._failed) / Math.max(seconds, 1e-9));
+		return this._failed;
+	}//end run
+
+	private void submit(ExecutorService workers, ArrayDeque<Future<List<String>>> inFlight, final List<Op> group) throws Exception {
+		// keep a few groups per thread in flight, so memory does not grow with the script
+		while (inFlight.size() >= 2 * this._threads)
+			print(inFlight.poll());
+		inFlight.add(workers.submit(() -> runGroup(group)));
+	}
+
+	private void print(Future<List<String>> done) throws Exception {
+		List<String> results;
+		try{
+			results = done.get();
+		}catch (ExecutionException e){
+			if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+			throw e;
+		}//end try
+		for (String result : results){
+			if (split(result)[2].equals("OK")) ++this._ok;
+			else ++this._failed;
+			this._results.println(result);
+		}//end for
+	}//end print
+
+	private static boolean batched(String name) {
+		return name.equals("AddCustomer") || name.equals("AddMechanic") || name.equals("AddCar") || name.equals("InsertServiceRequest");
+	}
+
+	/**
+	 * Method to run a group of lines, as one batch if they are inserts.
+	 *
+	 * @return the result line of every operation, in order
+	 */
+	List<String> runGroup(List<Op> group) {
+		List<String> results = new ArrayList<String>(group.size());
+		if (group.size() > 1){
+			try{
+				int[] ids = runBatch(group);
+				for (int i = 0; i < ids.length; ++i)
+					results.add(ids[i] < 0 ? error(group.get(i), "Odometer is below the last reading") : ok(group.get(i), ids[i]));
+				return results;
+			}catch (Exception e){
+				// run the lines one by one to find out which failed
+				results.clear();
+			}//end try
+		}//end if
+		for (Op op : group){
+			try{
+				results.add(ok(op, runOne(op)));
+			}catch (Exception e){
+				results.add(error(op, e.getMessage()));
+			}//end try
+		}//end for
+		return results;
+	}//end runGroup
+
+	private int[] runBatch(List<Op> group) throws Exception {
+		List<Object[]> rows = new ArrayList<Object[]>(group.size());
+		String name = group.get(0).name;
+		for (Op op : group){
+			String[] a = op.args;
+			switch (name){
+				case "AddCustomer": arity(op, 4); rows.add(new Object[] { a[0], a[1], a[2], a[3] }); break;
+				case "AddMechanic": arity(op, 3); rows.add(new Object[] { a[0], a[1], integer(a[2]) }); break;
+				case "AddCar": arity(op, 5); rows.add(new Object[] { a[0].toUpperCase(), a[1], a[2], integer(a[3]), integer(a[4]) }); break;
+				default: arity(op, 4); rows.add(new Object[] { integer(a[0]), a[1], integer(a[2]), a[3] }); break;
+			}//end switch
+		}//end for
+		switch (name){
+			case "AddCustomer": return this._esql.addCustomers(rows);
+			case "AddMechanic": return this._esql.addMechanics(rows);
+			case "AddCar": return this._esql.addCars(rows);
+			default: return this._esql.insertServiceRequests(rows);
+		}//end switch
+	}//end runBatch
+
+	/**
+	 * Method to run one operation.
+	 *
+	 * @return the id of the new row, or the row count of a report
+	 */
+	int runOne(Op op) throws Exception {
+		String[] a = op.args;
+		switch (op.name){
+			case "AddCustomer":
+				arity(op, 4);
+				return this._esql.addCustomer(a[0], a[1], a[2], a[3]);
+			case "AddMechanic":
+				arity(op, 3);
+				return this._esql.addMechanic(a[0], a[1], integer(a[2]));
+			case "AddCar":
+				arity(op, 5);
+				return this._esql.addCar(a[0].toUpperCase(), a[1], a[2], integer(a[3]), integer(a[4]));
+			case "InsertServiceRequest":
+				arity(op, 4);
+				return this._esql.insertServiceRequest(integer(a[0]), a[1], integer(a[2]), a[3]);
+			case "CloseServiceRequest":
+				arity(op, 5);
+				return this._esql.closeServiceRequest(integer(a[0]), integer(a[1]), java.sql.Date.valueOf(a[2].trim()), a[3], integer(a[4]));
+			case "ListCustomersWithBillLessThan100":
+				return this._esql.listCustomersWithBillLessThan(a.length > 0 ? integer(a[0]) : 100);
+			case "ListCustomersWithMoreThan20Cars":
+				return this._esql.listCustomersWithMoreCarsThan(a.length > 0 ? integer(a[0]) : 20);
+			case "ListCarsBefore1995With50000Milles":
+				return this._esql.listCarsBeforeYearUnderMiles(a.length > 0 ? integer(a[0]) : 1995, a.length > 1 ? integer(a[1]) : 50000);
+			case "ListKCarsWithTheMostServices":
+				arity(op, 1);
+				return this._esql.listKCarsWithTheMostServices(integer(a[0]));
+			case "ListCustomersInDescendingOrderOfTheirTotalBill":
+				return this._esql.listCustomersByTotalBill();
+			default:
+				throw new IllegalArgumentException("unknown operation " + op.name);
+		}//end switch
+	}//end runOne
+
+	private static void arity(Op op, int args) {
+		if (op.args.length != args)
+			throw new IllegalArgumentException(op.name + " takes " + args + " fields, got " + op.args.length);
+	}
+
+	private static int integer(String value) {
+		return Integer.parseInt(value.trim());
+	}
+
+	private static String ok(Op op, int result) {
+		return op.line + "," + op.name + ",OK," + result;
+	}
+
+	private static String error(Op op, String message) {
+		return op.line + "," + op.name + ",ERROR," + quote(String.valueOf(message));
+	}
+
+	private static String quote(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+		return '"' + value.replace("\"", "\"\"").replace('\n', ' ') + '"';
+	}
+
+	/**
+	 * Method to split a CSV line.  A field in double quotes may hold commas,
+	 * and "" inside it stands for one double quote.
+	 */
+	static String[] split(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); ++i){
+			char c = line.charAt(i);
+			if (quoted){
+				if (c != '"') field.append(c);
+				else if (i + 1 < line.length() && line.charAt(i + 1) == '"'){ field.append('"'); ++i; }
+				else quoted = false;
+			}else if (c == '"'){
+				quoted = true;
+			}else if (c == ','){
+				fields.add(field.toString());
+				field.setLength(0);
+			}else{
+				field.append(c);
+			}//end if
+		}//end for
+		fields.add(field.toString());
+		return fields.toArray(new String[fields.size()]);
+	}//end split
+}//end BatchRunner
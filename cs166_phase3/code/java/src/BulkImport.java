@@ -0,0 +1,349 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * This class loads the CSV datasets (customer.csv, mechanic.csv, ...) into
+ * the database with client side COPY, so the files only need to be
+ * readable by the client and not by the DB server.
+ *
+ * Tables are loaded level by level in foreign key order; the tables of one
+ * level are loaded in parallel, each on its own pooled connection.  Dates
+ * in the files (10/22/2016 00:00) are rewritten to ISO format while the
+ * file is streamed, and the id sequences are moved past the loaded rows
+ * at the end.
+ *
+ * With a scale factor n > 1 every file is loaded n times.  Copy k shifts
+ * all ids by k times the id range of their table and rotates the letter
+ * prefix of every VIN by k, so the copies are distinct but keep the
+ * references and value distributions of the original data.
+ */
+public class BulkImport {
+	//bytes sent to the server per CopyIn.writeToCopy call
+	public static final int CHUNK_SIZE = 1 << 16;
+
+	//kinds of the leading fields of a row that are rewritten while loading
+	static final String VIN = "VIN";
+	static final String DATE = "DATE";
+
+	/**
+	 * One table and the file it is loaded from.  fields describes the
+	 * leading fields of a line: the name of the table whose id a field
+	 * holds, VIN, DATE (a M/d/yyyy date), or null for plain values.
+	 */
+	static class Table {
+		final String name;
+		final String file;
+		final String columns;
+		final String[] fields;
+
+		Table(String name, String file, String columns, String... fields) {
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+			this.fields = fields;
+		}
+	}//end Table
+
+	//tables in foreign key order; tables of one level do not reference each other
+	static final Table[][] LEVELS = {
+		{
+			new Table("Customer", "customer.csv", "id, fname, lname, phone, address", "Customer"),
+			new Table("Mechanic", "mechanic.csv", "id, fname, lname, experience", "Mechanic"),
+			new Table("Car", "car.csv", "vin, make, model, year", VIN),
+		},
+		{
+			new Table("Owns", "owns.csv", "ownership_id, customer_id, car_vin", "Owns", "Customer", VIN),
+			new Table("Service_Request", "service_request.csv", "rid, customer_id, car_vin, date, odometer, complain", "Service_Request", "Customer", VIN, DATE),
+		},
+		{
+			new Table("Closed_Request", "closed_request.csv", "wid, rid, mid, date, comment, bill", "Closed_Request", "Service_Request", "Mechanic", DATE),
+		},
+	};
+
+	//statements moving every id sequence past the loaded rows, see create.sql
+	static final String[] RESET_SEQUENCES = {
+		"SELECT setval('customer_id_seq', (SELECT COALESCE(MAX(id), -1) + 1 FROM Customer), false)",
+		"SELECT setval('mechanic_id_seq', (SELECT COALESCE(MAX(id), -1) + 1 FROM Mechanic), false)",
+		"SELECT setval('owns_ownership_id_seq', (SELECT COALESCE(MAX(ownership_id), -1) + 1 FROM Owns), false)",
+		"SELECT setval('service_request_rid_seq', (SELECT COALESCE(MAX(rid), -1) + 1 FROM Service_Request), false)",
+		"SELECT setval('closed_request_wid_seq', (SELECT COALESCE(MAX(wid), -1) + 1 FROM Closed_Request), false)",
+	};
+
+	private final ConnectionPool _pool;
+	private final IdAllocator _ids;
+	private final PrintStream _out;
+	//rows sent so far, over all tables
+	private final AtomicLong _rows = new AtomicLong();
+	//table name -> id range of its file, ids of copy k are shifted by k * stride
+	private final Map<String, Integer> _strides = new HashMap<String, Integer>();
+
+	public BulkImport(ConnectionPool pool, IdAllocator ids, PrintStream out) {
+		this._pool = pool;
+		this._ids = ids;
+		this._out = out;
+	}
+
+	/**
+	 * Method to load every dataset of a directory.
+	 *
+	 * @param dir directory holding customer.csv, mechanic.csv, ...
+	 * @param threads number of tables loaded at the same time
+	 * @param truncate empty the tables first
+	 * @param scale number of copies of the data to load
+	 * @return the number of rows loaded
+	 * @throws java.lang.Exception when a file could not be read or a COPY failed
+	 */
+	public long importDirectory(File dir, int threads, boolean truncate, final int scale) throws Exception {
+		if (scale < 1)
+			throw new IllegalArgumentException("scale factor must be at least 1: " + scale);
+		if (scale > 1){
+			for (Table[] level : LEVELS)
+				for (Table table : level)
+					if (table.fields[0] != VIN)
+						this._strides.put(table.name, stride(new File(dir, table.file)));
+		}//end if
+		if (truncate)
+			truncate();
+
+		ExecutorService loaders = Executors.newFixedThreadPool(Math.max(1, threads));
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		final long start = System.nanoTime();
+		reporter.scheduleAtFixedRate(() -> report("loading", start), 1, 1, TimeUnit.SECONDS);
+		try{
+			for (Table[] level : LEVELS){
+				List<Future<Long>> loads = new ArrayList<Future<Long>>();
+				for (final Table table : level){
+					final File file = new File(dir, table.file);
+					loads.add(loaders.submit(() -> load(table, file, scale)));
+				}//end for
+				for (int i = 0; i < level.length; ++i){
+					try{
+						this._out.println(level[i].name + ": " + loads.get(i).get() + " rows");
+					}catch (ExecutionException e){
+						if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+						throw e;
+					}//end try
+				}//end for
+			}//end for
+		}finally{
+			reporter.shutdownNow();
+			loaders.shutdownNow();
+		}//end try
+
+		afterLoad();
+		report("done", start);
+		return this._rows.get();
+	}//end importDirectory
+
+	/**
+	 * Method to empty every table of the shop.
+	 */
+	void truncate() throws SQLException {
+		execute("TRUNCATE Customer, Mechanic, Car, Owns, Service_Request, Closed_Request, Customer_Bill, Car_Service_Count");
+	}//end truncate
+
+	/**
+	 * Method to move the id sequences past the loaded rows, drop the id
+	 * blocks reserved before the load and refresh planner statistics.
+	 */
+	void afterLoad() throws SQLException {
+		for (String sql : RESET_SEQUENCES)
+			execute(sql);
+		this._ids.reset();
+		execute("ANALYZE");
+	}//end afterLoad
+
+	/**
+	 * Method to stream scale copies of one file into its table with a
+	 * single COPY FROM STDIN.
+	 *
+	 * @return the number of rows loaded
+	 */
+	long load(Table table, File file, int scale) throws SQLException, IOException {
+		PooledConnection conn = this._pool.acquire();
+		try{
+			String sql = "COPY " + table.name + " (" + table.columns + ") FROM STDIN WITH DELIMITER ','";
+			CopyIn copy = conn.connection().unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+			try{
+				for (int k = 0; k < scale; ++k)
+					copy(copy, table, file, k);
+				return copy.endCopy();
+			}catch (SQLException | IOException | RuntimeException e){
+				if (copy.isActive()) copy.cancelCopy();
+				throw e;
+			}//end try
+		}catch (SQLException e){
+			conn.failed(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}//end load
+
+	/**
+	 * Method to send copy k of a CSV file to an open COPY.
+	 */
+	private void copy(CopyIn copy, Table table, File file, int k) throws SQLException, IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), CHUNK_SIZE);
+		StringBuilder chunk = new StringBuilder(CHUNK_SIZE + 1024);
+		long rows = 0;
+		try{
+			String line;
+			while ((line = in.readLine()) != null){
+				if (line.isEmpty()) continue;
+				appendRow(chunk, line, table, k);
+				chunk.append('\n');
+				++rows;
+				if (chunk.length() >= CHUNK_SIZE){
+					send(copy, chunk);
+					this._rows.addAndGet(rows);
+					rows = 0;
+				}//end if
+			}//end while
+			send(copy, chunk);
+			this._rows.addAndGet(rows);
+		}finally{
+			in.close();
+		}//end try
+	}//end copy
+
+	/**
+	 * Method to find the id range of a file, i.e. one more than the
+	 * largest id in its first field.
+	 */
+	private static int stride(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), CHUNK_SIZE);
+		int max = -1;
+		try{
+			String line;
+			while ((line = in.readLine()) != null){
+				int comma = line.indexOf(',');
+				if (comma > 0) max = Math.max(max, Integer.parseInt(line.substring(0, comma).trim()));
+			}//end while
+		}finally{
+			in.close();
+		}//end try
+		return max + 1;
+	}//end stride
+
+	private static void send(CopyIn copy, StringBuilder chunk) throws SQLException {
+		if (chunk.length() == 0) return;
+		byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+		copy.writeToCopy(bytes, 0, bytes.length);
+		chunk.setLength(0);
+	}
+
+	/**
+	 * Method to append copy k of a CSV line.  Id fields are shifted by k
+	 * times the stride of their table, VINs get their letter prefix
+	 * rotated by k and dates are rewritten from M/d/yyyy [H:mm] to
+	 * yyyy-MM-dd.  Everything after the described fields is copied as is.
+	 */
+	void appendRow(StringBuilder out, String line, Table table, int k) {
+		int begin = 0;
+		for (int field = 0; field < table.fields.length; ++field){
+			int end = line.indexOf(',', begin);
+			if (end < 0) end = line.length();
+			String kind = table.fields[field];
+			if (kind == DATE)
+				appendIsoDate(out, line, begin, end);
+			else if (kind == VIN)
+				appendVin(out, line, begin, end, k);
+			else if (kind != null && k > 0)
+				out.append(Integer.parseInt(line.substring(begin, end).trim()) + (long) k * this._strides.get(kind));
+			else
+				out.append(line, begin, end);
+			if (end == line.length()) return;
+			out.append(',');
+			begin = end + 1;
+		}//end for
+		out.append(line, begin, line.length());
+	}//end appendRow
+
+	/**
+	 * Method to append a M/d/yyyy [H:mm] date as yyyy-MM-dd.  Values that
+	 * do not look like such a date are left for the server to reject.
+	 */
+	static void appendIsoDate(StringBuilder out, String line, int begin, int end) {
+		int slash1 = line.indexOf('/', begin);
+		int slash2 = slash1 < 0 ? -1 : line.indexOf('/', slash1 + 1);
+		if (slash1 < 0 || slash2 < 0 || slash2 > end){
+			out.append(line, begin, end);
+			return;
+		}//end if
+		int yearEnd = slash2 + 1;
+		while (yearEnd < end && Character.isDigit(line.charAt(yearEnd))) ++yearEnd;
+
+		out.append(line, slash2 + 1, yearEnd).append('-');
+		pad2(out, line, begin, slash1);
+		out.append('-');
+		pad2(out, line, slash1 + 1, slash2);
+	}//end appendIsoDate
+
+	/**
+	 * Method to append copy k of a VIN: its first three letters, read as a
+	 * base 26 number, are advanced by k.
+	 */
+	static void appendVin(StringBuilder out, String line, int begin, int end, int k) {
+		if (k == 0){
+			out.append(line, begin, end);
+			return;
+		}//end if
+		int prefix = 0;
+		for (int i = begin; i < begin + 3; ++i){
+			char c = Character.toUpperCase(line.charAt(i));
+			if (c < 'A' || c > 'Z')
+				throw new IllegalArgumentException("Cannot scale VIN " + line.substring(begin, end) + ", it does not start with three letters");
+			prefix = prefix * 26 + (c - 'A');
+		}//end for
+		prefix = (prefix + k) % (26 * 26 * 26);
+		out.append((char) ('A' + prefix / 676)).append((char) ('A' + prefix / 26 % 26)).append((char) ('A' + prefix % 26));
+		out.append(line, begin + 3, end);
+	}//end appendVin
+
+	private static void pad2(StringBuilder out, String line, int begin, int end) {
+		if (end - begin < 2) out.append('0');
+		out.append(line, begin, end);
+	}
+
+	private void execute(String sql) throws SQLException {
+		PooledConnection conn = this._pool.acquire();
+		try{
+			Statement stmt = conn.connection().createStatement();
+			stmt.execute(sql);
+			stmt.close();
+		}catch (SQLException e){
+			conn.failed(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}
+
+	private void report(String phase, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long rows = this._rows.get();
+		this._out.printf("%s: %d rows in %.1f s (%.0f rows/s)%n", phase, rows, seconds, seconds > 0 ? rows / seconds : 0.0);
+	}
+}//end BulkImport
@@ -0,0 +1,274 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class holds a whole query result in memory, one array per column
+ * instead of one list per row:
+ *
+ *	- SMALLINT and INTEGER columns are int[], BIGINT columns long[];
+ *	- other columns are strings.  While a column has few distinct values
+ *	  (makes, models, dates) they are stored once in a dictionary and the
+ *	  rows hold an int code each; once it has too many to gain from that
+ *	  (names, VINs) the column switches to a plain String[].
+ *
+ * So an integer cell costs 4 bytes instead of a String, its char array and
+ * a slot in a row list, and a repeated string costs 4 bytes.  NULLs are
+ * kept in a bitmap per column, allocated on the first one.
+ *
+ * Values are read with getInt(), getLong() and getString(), or through
+ * row() and rows(), lightweight List views that format each value when it
+ * is read, for code written against List<List<String>>.
+ */
+public class ColumnarResult {
+	//a string column keeps its dictionary while it has at most this many values...
+	public static final int MAX_DICTIONARY = 1 << 16;
+	//...and, past DICTIONARY_TRIAL rows, at most one distinct value per DICTIONARY_RATIO rows
+	static final int DICTIONARY_TRIAL = 1024;
+	static final int DICTIONARY_RATIO = 4;
+
+	private static final byte INT = 0;
+	private static final byte LONG = 1;
+	private static final byte DICTIONARY = 2;
+	private static final byte STRING = 3;
+
+	private final String[] _names;
+	private final byte[] _kinds;
+	//per column one of int[] (INT, DICTIONARY codes), long[] or String[]
+	private final Object[] _values;
+	//per column the NULL bitmap, null while the column has no NULL
+	private final long[][] _nulls;
+	//per DICTIONARY column its distinct values, by code
+	private final ArrayList<List<String>> _dictionaries = new ArrayList<List<String>>();
+	private final ArrayList<HashMap<String, Integer>> _codes = new ArrayList<HashMap<String, Integer>>();
+	private int _rowCount = 0;
+	//characters of the strings read plus the size of the numbers, see bytes()
+	private long _bytes = 0;
+
+	/**
+	 * Method to read every remaining row of a result set.
+	 *
+	 * @param rs the result set, positioned before its first row
+	 */
+	public ColumnarResult(ResultSet rs) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData ();
+		int numCol = rsmd.getColumnCount ();
+		this._names = new String[numCol];
+		this._kinds = new byte[numCol];
+		this._values = new Object[numCol];
+		this._nulls = new long[numCol][];
+		for (int c = 0; c < numCol; ++c){
+			this._names[c] = rsmd.getColumnName (c + 1);
+			switch (rsmd.getColumnType (c + 1)){
+				case Types.SMALLINT: case Types.INTEGER: case Types.TINYINT:
+					this._kinds[c] = INT;
+					this._values[c] = new int[16];
+					break;
+				case Types.BIGINT:
+					this._kinds[c] = LONG;
+					this._values[c] = new long[16];
+					break;
+				default:
+					this._kinds[c] = DICTIONARY;
+					this._values[c] = new int[16];
+			}//end switch
+			this._dictionaries.add (this._kinds[c] == DICTIONARY ? new ArrayList<String>() : null);
+			this._codes.add (this._kinds[c] == DICTIONARY ? new HashMap<String, Integer>() : null);
+		}//end for
+		while (rs.next ()){
+			int r = this._rowCount;
+			if (r == capacity ())
+				grow ();
+			for (int c = 0; c < numCol; ++c){
+				switch (this._kinds[c]){
+					case INT:
+						((int[]) this._values[c])[r] = rs.getInt (c + 1);
+						if (rs.wasNull ()) setNull (r, c);
+						this._bytes += 4;
+						break;
+					case LONG:
+						((long[]) this._values[c])[r] = rs.getLong (c + 1);
+						if (rs.wasNull ()) setNull (r, c);
+						this._bytes += 8;
+						break;
+					default:
+						String value = rs.getString (c + 1);
+						if (value == null) setNull (r, c);
+						else setString (r, c, value);
+						if (value != null) this._bytes += value.length ();
+				}//end switch
+			}//end for
+			this._rowCount = r + 1;
+		}//end while
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int rowCount() {
+		return this._rowCount;
+	}
+
+	/**
+	 * @return the number of columns
+	 */
+	public int columnCount() {
+		return this._names.length;
+	}
+
+	/**
+	 * @return an estimate of the bytes read from the database: the
+	 *         characters of the strings and 4 or 8 per number
+	 */
+	public long bytes() {
+		return this._bytes;
+	}
+
+	/**
+	 * @return the name of a column, counted from 0
+	 */
+	public String columnName(int column) {
+		return this._names[column];
+	}
+
+	public boolean isNull(int row, int column) {
+		check (row);
+		long[] nulls = this._nulls[column];
+		return nulls != null && (nulls[row >>> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * Method to read a value as an int.  String values are parsed.
+	 *
+	 * @return the value, 0 for NULL
+	 */
+	public int getInt(int row, int column) {
+		if (isNull (row, column)) return 0;
+		switch (this._kinds[column]){
+			case INT: return ((int[]) this._values[column])[row];
+			case LONG: return Math.toIntExact (((long[]) this._values[column])[row]);
+			default: return Integer.parseInt (getString (row, column).trim ());
+		}//end switch
+	}//end getInt
+
+	/**
+	 * Method to read a value as a long.  String values are parsed.
+	 *
+	 * @return the value, 0 for NULL
+	 */
+	public long getLong(int row, int column) {
+		if (isNull (row, column)) return 0;
+		switch (this._kinds[column]){
+			case INT: return ((int[]) this._values[column])[row];
+			case LONG: return ((long[]) this._values[column])[row];
+			default: return Long.parseLong (getString (row, column).trim ());
+		}//end switch
+	}//end getLong
+
+	/**
+	 * Method to read a value as ResultSet.getString() would have returned
+	 * it.
+	 *
+	 * @return the value, null for NULL
+	 */
+	public String getString(int row, int column) {
+		if (isNull (row, column)) return null;
+		switch (this._kinds[column]){
+			case INT: return Integer.toString (((int[]) this._values[column])[row]);
+			case LONG: return Long.toString (((long[]) this._values[column])[row]);
+			case DICTIONARY: return this._dictionaries.get (column).get (((int[]) this._values[column])[row]);
+			default: return ((String[]) this._values[column])[row];
+		}//end switch
+	}//end getString
+
+	/**
+	 * @return a read-only view of a row, as strings
+	 */
+	public List<String> row(final int row) {
+		check (row);
+		return new AbstractList<String>() {
+			public String get(int column) { return getString (row, column); }
+			public int size() { return columnCount (); }
+		};
+	}//end row
+
+	/**
+	 * @return a read-only view of all rows, as lists of strings
+	 */
+	public List<List<String>> rows() {
+		return new AbstractList<List<String>>() {
+			public List<String> get(int row) { return row (row); }
+			public int size() { return rowCount (); }
+		};
+	}//end rows
+
+	private void check(int row) {
+		if (row < 0 || row >= this._rowCount)
+			throw new IndexOutOfBoundsException ("row " + row + " of " + this._rowCount);
+	}
+
+	private int capacity() {
+		Object values = this._values.length == 0 ? null : this._values[0];
+		if (values instanceof int[]) return ((int[]) values).length;
+		if (values instanceof long[]) return ((long[]) values).length;
+		if (values instanceof String[]) return ((String[]) values).length;
+		return Integer.MAX_VALUE;
+	}
+
+	private void grow() {
+		int capacity = capacity () + (capacity () >> 1);
+		for (int c = 0; c < this._values.length; ++c){
+			Object values = this._values[c];
+			if (values instanceof int[]) this._values[c] = Arrays.copyOf ((int[]) values, capacity);
+			else if (values instanceof long[]) this._values[c] = Arrays.copyOf ((long[]) values, capacity);
+			else this._values[c] = Arrays.copyOf ((String[]) values, capacity);
+			if (this._nulls[c] != null) this._nulls[c] = Arrays.copyOf (this._nulls[c], (capacity + 63) >>> 6);
+		}//end for
+	}//end grow
+
+	private void setNull(int row, int column) {
+		if (this._nulls[column] == null) this._nulls[column] = new long[(capacity () + 63) >>> 6];
+		this._nulls[column][row >>> 6] |= 1L << row;
+	}
+
+	private void setString(int row, int column, String value) {
+		if (this._kinds[column] == STRING){
+			((String[]) this._values[column])[row] = value;
+			return;
+		}//end if
+		List<String> dictionary = this._dictionaries.get (column);
+		HashMap<String, Integer> codes = this._codes.get (column);
+		Integer code = codes.get (value);
+		if (code == null){
+			if (dictionary.size () >= MAX_DICTIONARY || (row >= DICTIONARY_TRIAL && dictionary.size () * DICTIONARY_RATIO > row)){
+				// too many distinct values to gain anything, store the strings themselves
+				int[] old = (int[]) this._values[column];
+				String[] values = new String[old.length];
+				for (int r = 0; r < row; ++r)
+					if (!isNull (r, column, row)) values[r] = dictionary.get (old[r]);
+				values[row] = value;
+				this._values[column] = values;
+				this._kinds[column] = STRING;
+				this._dictionaries.set (column, null);
+				this._codes.set (column, null);
+				return;
+			}//end if
+			code = dictionary.size ();
+			dictionary.add (value);
+			codes.put (value, code);
+		}//end if
+		((int[]) this._values[column])[row] = code;
+	}//end setString
+
+	//isNull() for rows still being read
+	private boolean isNull(int row, int column, int rowCount) {
+		long[] nulls = this._nulls[column];
+		return row < rowCount && nulls != null && (nulls[row >>> 6] & (1L << row)) != 0;
+	}
+}//end ColumnarResult
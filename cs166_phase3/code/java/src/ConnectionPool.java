@@ -0,0 +1,127 @@
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a bounded pool of JDBC connections shared by every session
+ * of one MechanicShop process.  At most size connections are open at any
+ * time; callers beyond that wait for a connection to be released.  Idle
+ * connections are validated before they are handed out again and broken
+ * ones are replaced transparently.
+ */
+public class ConnectionPool {
+	//how long a caller waits for a free connection
+	public static final long ACQUIRE_TIMEOUT_MILLIS = 30000;
+	//connections idle for longer than this are pinged before use
+	public static final long IDLE_CHECK_MILLIS = 30000;
+
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final int _size;
+	//one permit per connection that may be handed out
+	private final Semaphore _permits;
+	//connections not in use, most recently released first
+	private final LinkedBlockingDeque<PooledConnection> _idle = new LinkedBlockingDeque<PooledConnection>();
+	private volatile boolean _closed = false;
+	//statement and wait time statistics of every session using the pool
+	private final Metrics _metrics = new Metrics();
+
+	public ConnectionPool(String url, String user, String passwd, int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException("pool size must be positive: " + size);
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._size = size;
+		this._permits = new Semaphore(size, true);
+	}
+
+	/**
+	 * Method to borrow a connection.  Reuses an idle connection when there
+	 * is one and opens a new one otherwise.
+	 *
+	 * @return a connection that must be given back with release()
+	 * @throws java.sql.SQLException when no connection became free in time
+	 *         or a new one could not be opened
+	 */
+	public PooledConnection acquire() throws SQLException {
+		if (this._closed)
+			throw new SQLException("Connection pool is closed", "08003");
+		long start = System.nanoTime();
+		try{
+			if (!this._permits.tryAcquire(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+				throw new SQLException("Timed out waiting for a database connection", "08001");
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection", "08001");
+		}//end try
+		try{
+			PooledConnection conn;
+			while ((conn = this._idle.pollFirst()) != null){
+				if (conn.isHealthy(IDLE_CHECK_MILLIS)) break;
+				conn.close();
+			}//end while
+			if (conn == null) conn = new PooledConnection(DriverManager.getConnection(this._url, this._user, this._passwd));
+			this._metrics.poolWait(System.nanoTime() - start);
+			return conn;
+		}catch (SQLException e){
+			this._permits.release();
+			throw e;
+		}//end try
+	}//end acquire
+
+	/**
+	 * Method to give a borrowed connection back.  Connections that broke
+	 * while in use are closed instead of being pooled.
+	 *
+	 * @param conn a connection returned by acquire()
+	 */
+	public void release(PooledConnection conn) {
+		if (this._closed || !conn.reset())
+			conn.close();
+		else
+			this._idle.offerFirst(conn);
+		this._permits.release();
+	}//end release
+
+	/**
+	 * Method to open a connection of its own, outside the pool and its
+	 * size, for background work that must never hold a connection the
+	 * sessions wait for.
+	 *
+	 * @return a connection the caller closes, never to be released
+	 */
+	public PooledConnection open() throws SQLException {
+		if (this._closed)
+			throw new SQLException("Connection pool is closed", "08003");
+		return new PooledConnection(DriverManager.getConnection(this._url, this._user, this._passwd));
+	}//end open
+
+	/**
+	 * @return the maximum number of open connections
+	 */
+	public int size() {
+		return this._size;
+	}
+
+	/**
+	 * @return the statistics of the statements run on the pool's connections
+	 */
+	public Metrics metrics() {
+		return this._metrics;
+	}
+
+	/**
+	 * Method to close every idle connection.  Connections still in use are
+	 * closed when they are released.
+	 */
+	public void close() {
+		this._closed = true;
+		PooledConnection conn;
+		while ((conn = this._idle.pollFirst()) != null)
+			conn.close();
+	}//end close
+}//end ConnectionPool
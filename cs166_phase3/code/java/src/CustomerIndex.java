@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class answers type-ahead customer lookups by name or phone number
+ * prefix in memory, without querying the database.
+ *
+ * It is kept compact with sorted arrays instead of a tree or a trie:
+ *  - the name of every customer ("Lname Fname") is stored once, in an
+ *    array indexed by customer id, and equal names share one String,
+ *  - an int array holds the customer ids sorted by name, ignoring case,
+ *  - phone numbers are stored as 10-digit longs, sorted, next to their ids.
+ * A prefix is found by binary search and the matches are read off the
+ * following entries.  New customers are inserted in place (see add()).
+ *
+ * Customer ids come from a sequence and are dense, which the by-id array
+ * relies on.  Phone numbers without exactly 10 digits are not indexed.
+ */
+public class CustomerIndex {
+	public static final int PHONE_DIGITS = 10;
+
+	//"Lname Fname" by customer id, null where there is no customer
+	private String[] _names = new String[0];
+	//length of the last name part of _names
+	private byte[] _lnameLength = new byte[0];
+	//customer ids, sorted by name then id
+	private int[] _byName = new int[0];
+	private int _nameCount = 0;
+	//phone numbers and their customer ids, sorted by number then id
+	private long[] _phones = new long[0];
+	private int[] _phoneIds = new int[0];
+	private int _phoneCount = 0;
+	//one String per distinct name
+	private final HashMap<String, String> _interned = new HashMap<String, String>();
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	private volatile boolean _loaded = false;
+
+	/**
+	 * Method to replace the index with the rows of a query returning id,
+	 * fname, lname and phone, in that order.
+	 */
+	public void load(ColumnarResult rows) {
+		this._lock.writeLock().lock();
+		try{
+			int maxId = -1;
+			for (int i = 0; i < rows.rowCount(); ++i)
+				maxId = Math.max(maxId, rows.getInt(i, 0));
+			this._names = new String[maxId + 1];
+			this._lnameLength = new byte[maxId + 1];
+			this._interned.clear();
+			Integer[] byName = new Integer[rows.rowCount()];
+			final long[] phones = new long[rows.rowCount()];
+			final int[] phoneIds = new int[rows.rowCount()];
+			int phoneCount = 0;
+			for (int i = 0; i < rows.rowCount(); ++i){
+				int id = rows.getInt(i, 0);
+				setName(id, rows.getString(i, 1), rows.getString(i, 2));
+				byName[i] = id;
+				long phone = phoneNumber(rows.getString(i, 3));
+				if (phone >= 0){
+					phones[phoneCount] = phone;
+					phoneIds[phoneCount++] = id;
+				}//end if
+			}//end for
+
+			final String[] names = this._names;
+			Arrays.sort(byName, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) { return compareName(names[a], a, names[b], b); }
+			});
+			this._byName = new int[Math.max(16, byName.length)];
+			for (int i = 0; i < byName.length; ++i) this._byName[i] = byName[i];
+			this._nameCount = byName.length;
+
+			// sort the positions by number, then lay both arrays out in that order
+			Integer[] order = new Integer[phoneCount];
+			for (int i = 0; i < phoneCount; ++i) order[i] = i;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					int c = Long.compare(phones[a], phones[b]);
+					return c != 0 ? c : Integer.compare(phoneIds[a], phoneIds[b]);
+				}
+			});
+			this._phones = new long[Math.max(16, phoneCount)];
+			this._phoneIds = new int[Math.max(16, phoneCount)];
+			for (int i = 0; i < phoneCount; ++i){
+				this._phones[i] = phones[order[i]];
+				this._phoneIds[i] = phoneIds[order[i]];
+			}//end for
+			this._phoneCount = phoneCount;
+			this._loaded = true;
+		}finally{
+			this._lock.writeLock().unlock();
+		}//end try
+	}//end load
+
+	public boolean isLoaded() {
+		return this._loaded;
+	}
+
+	/**
+	 * Method to add a new customer.  The customer is inserted into the
+	 * sorted arrays by moving the entries after it, which is cheap next to
+	 * the insert that created the customer.
+	 */
+	public void add(int id, String fname, String lname, String phone) {
+		if (!this._loaded) return;
+		this._lock.writeLock().lock();
+		try{
+			if (id >= this._names.length){
+				int length = Math.max(id + 1, this._names.length + (this._names.length >> 1));
+				this._names = Arrays.copyOf(this._names, length);
+				this._lnameLength = Arrays.copyOf(this._lnameLength, length);
+			}//end if
+			setName(id, fname, lname);
+
+			if (this._nameCount == this._byName.length)
+				this._byName = Arrays.copyOf(this._byName, this._nameCount + (this._nameCount >> 1) + 1);
+			int at = lowerBound(this._names[id], id);
+			System.arraycopy(this._byName, at, this._byName, at + 1, this._nameCount - at);
+			this._byName[at] = id;
+			++this._nameCount;
+
+			long number = phoneNumber(phone);
+			if (number < 0) return;
+			if (this._phoneCount == this._phones.length){
+				this._phones = Arrays.copyOf(this._phones, this._phoneCount + (this._phoneCount >> 1) + 1);
+				this._phoneIds = Arrays.copyOf(this._phoneIds, this._phones.length);
+			}//end if
+			at = lowerBound(number, id);
+			System.arraycopy(this._phones, at, this._phones, at + 1, this._phoneCount - at);
+			System.arraycopy(this._phoneIds, at, this._phoneIds, at + 1, this._phoneCount - at);
+			this._phones[at] = number;
+			this._phoneIds[at] = id;
+			++this._phoneCount;
+		}finally{
+			this._lock.writeLock().unlock();
+		}//end try
+	}//end add
+
+	/**
+	 * Method to find the customers whose "Lname Fname" starts with prefix,
+	 * ignoring case.  "Smi" matches every Smith, "Smith J" only the Smiths
+	 * whose first name starts with J.
+	 *
+	 * @return id, fname and lname of at most limit customers, by name
+	 */
+	public List<List<String>> searchName(String prefix, int limit) {
+		List<List<String>> result = new ArrayList<List<String>>();
+		this._lock.readLock().lock();
+		try{
+			for (int i = lowerBound(prefix, -1); i < this._nameCount && result.size() < limit; ++i){
+				int id = this._byName[i];
+				String name = this._names[id];
+				if (!name.regionMatches(true, 0, prefix, 0, prefix.length())) break;
+				result.add(row(id));
+			}//end for
+		}finally{
+			this._lock.readLock().unlock();
+		}//end try
+		return result;
+	}//end searchName
+
+	/**
+	 * Method to find the customers whose phone number starts with the
+	 * given digits; other characters of digits are ignored.
+	 *
+	 * @return id, fname and lname of at most limit customers, by number
+	 */
+	public List<List<String>> searchPhone(String digits, int limit) {
+		List<List<String>> result = new ArrayList<List<String>>();
+		String prefix = digits.replaceAll("[^0-9]", "");
+		if (prefix.length() > PHONE_DIGITS) return result;
+		long scale = 1;
+		for (int i = prefix.length(); i < PHONE_DIGITS; ++i) scale *= 10;
+		long low = prefix.isEmpty() ? 0 : Long.parseLong(prefix) * scale;
+		long high = low + scale;
+		this._lock.readLock().lock();
+		try{
+			for (int i = lowerBound(low, -1); i < this._phoneCount && this._phones[i] < high && result.size() < limit; ++i)
+				result.add(row(this._phoneIds[i]));
+		}finally{
+			this._lock.readLock().unlock();
+		}//end try
+		return result;
+	}//end searchPhone
+
+	private void setName(int id, String fname, String lname) {
+		String last = lname.trim();
+		String name = last + " " + fname.trim();
+		String interned = this._interned.get(name);
+		if (interned == null){
+			interned = name;
+			this._interned.put(name, name);
+		}//end if
+		this._names[id] = interned;
+		this._lnameLength[id] = (byte) last.length();
+	}//end setName
+
+	private List<String> row(int id) {
+		String name = this._names[id];
+		int split = this._lnameLength[id] & 0xff;
+		return Arrays.asList(Integer.toString(id), name.substring(split + 1), name.substring(0, split));
+	}
+
+	/**
+	 * Method to find the first position in _byName not before (name, id).
+	 */
+	private int lowerBound(String name, int id) {
+		int low = 0, high = this._nameCount;
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			int other = this._byName[mid];
+			if (compareName(this._names[other], other, name, id) < 0) low = mid + 1;
+			else high = mid;
+		}//end while
+		return low;
+	}//end lowerBound
+
+	/**
+	 * Method to find the first position in _phones not before (number, id).
+	 */
+	private int lowerBound(long number, int id) {
+		int low = 0, high = this._phoneCount;
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			int c = Long.compare(this._phones[mid], number);
+			if (c < 0 || (c == 0 && this._phoneIds[mid] < id)) low = mid + 1;
+			else high = mid;
+		}//end while
+		return low;
+	}//end lowerBound
+
+	private static int compareName(String a, int aId, String b, int bId) {
+		int c = String.CASE_INSENSITIVE_ORDER.compare(a, b);
+		return c != 0 ? c : Integer.compare(aId, bId);
+	}
+
+	/**
+	 * Method to turn a phone number such as (555)555-5555 into the long
+	 * 5555555555.
+	 *
+	 * @return the number, -1 if it does not have exactly 10 digits
+	 */
+	static long phoneNumber(String phone) {
+		long number = 0;
+		int digits = 0;
+		for (int i = 0; i < phone.length(); ++i){
+			char c = phone.charAt(i);
+			if (c < '0' || c > '9') continue;
+			if (++digits > PHONE_DIGITS) return -1;
+			number = number * 10 + (c - '0');
+		}//end for
+		return digits == PHONE_DIGITS ? number : -1;
+	}//end phoneNumber
+}//end CustomerIndex
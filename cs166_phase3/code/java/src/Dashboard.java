@@ -0,0 +1,296 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs the five reports of the menu (6 to 10) at the same time,
+ * each in its own session on its own pooled connection, and prints each
+ * one as soon as it is complete, so the whole dashboard takes about as
+ * long as the slowest report instead of the sum of all five.
+ *
+ * One report at a time has the terminal and streams its rows straight to
+ * it: the first one to print a row, then, when it is done, one that is
+ * still running.  The others spool to a temp file until their turn, so
+ * reports never interleave and no report is held in memory.  Reports
+ * still running when the timeout expires are cancelled on the server with
+ * Statement.cancel() (see MechanicShop.cancel()).
+ */
+public class Dashboard {
+	public static final String[] TITLES = {
+		"ListCustomersWithBillLessThan100",
+		"ListCustomersWithMoreThan20Cars",
+		"ListCarsBefore1995With50000Milles",
+		"ListKCarsWithTheMostServices (k = 10)",
+		"ListCustomersInDescendingOrderOfTheirTotalBill"
+	};
+	//connections the dashboard uses at most, one per report
+	public static final int REPORTS = TITLES.length;
+	public static final long DEFAULT_TIMEOUT_MILLIS = Long.getLong("mechanicshop.dashboardTimeoutMillis", 60000);
+	//how long cancelled reports get to end before the dashboard returns
+	public static final long CANCEL_GRACE_MILLIS = 5000;
+
+	/**
+	 * One report and where it is written.
+	 */
+	private static class Report implements Callable<Report> {
+		final int index;
+		final Spool spool;
+		final MechanicShop session;
+		int rowCount = -1;
+		long nanos = 0;
+		Exception error = null;
+		boolean cancelled = false;
+
+		Report(MechanicShop esql, Spool spool) throws UnsupportedEncodingException {
+			this.index = spool.index;
+			this.spool = spool;
+			this.session = esql.newSession(null, new PrintStream(spool, false, "UTF-8"));
+		}
+
+		public Report call() {
+			long start = System.nanoTime();
+			try{
+				switch (this.index){
+					case 0: this.rowCount = this.session.listCustomersWithBillLessThan(100); break;
+					case 1: this.rowCount = this.session.listCustomersWithMoreCarsThan(20); break;
+					case 2: this.rowCount = this.session.listCarsBeforeYearUnderMiles(1995, 50000); break;
+					case 3: this.rowCount = this.session.listKCarsWithTheMostServices(10); break;
+					default: this.rowCount = this.session.listCustomersByTotalBill(); break;
+				}//end switch
+			}catch (Exception e){
+				this.error = e;
+			}//end try
+			this.nanos = System.nanoTime() - start;
+			return this;
+		}//end call
+	}
+
+	/**
+	 * Where one report writes: the terminal while the report has it, a
+	 * temp file otherwise.  Every spool locks the dashboard, so the
+	 * terminal only changes hands between two writes.
+	 */
+	private class Spool extends OutputStream {
+		final int index;
+		//the terminal, the temp file, or null before the first write
+		private OutputStream _target = null;
+		private File _file = null;
+		//set once the report was printed; later writes are dropped
+		private boolean _ended = false;
+
+		Spool(int index) {
+			this.index = index;
+		}
+
+		public void write(int b) throws IOException {
+			synchronized (Dashboard.this){
+				if (!this._ended) target().write(b);
+			}//end synchronized
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized (Dashboard.this){
+				if (!this._ended) target().write(b, off, len);
+			}//end synchronized
+		}
+
+		public void flush() throws IOException {
+			synchronized (Dashboard.this){
+				if (!this._ended && this._target != null) this._target.flush();
+			}//end synchronized
+		}
+
+		/**
+		 * @return whether the report wrote anything yet
+		 */
+		boolean started() {
+			return this._target != null;
+		}
+
+		/**
+		 * Method to find where the next write goes: the first report to
+		 * write gets the terminal unless another one has it.
+		 */
+		private OutputStream target() throws IOException {
+			if (this._target == null){
+				if (Dashboard.this._live == null){
+					live();
+				}else{
+					this._file = File.createTempFile("dashboard-", ".txt");
+					this._file.deleteOnExit();
+					this._target = new BufferedOutputStream(new FileOutputStream(this._file), 1 << 16);
+				}//end if
+			}//end if
+			return this._target;
+		}//end target
+
+		/**
+		 * Method to give the report the terminal: its heading and what it
+		 * spooled so far are printed, and it writes to the terminal from
+		 * now on.  Called with the dashboard locked.
+		 */
+		void live() throws IOException {
+			Dashboard.this._out.println("== " + TITLES[this.index] + " ==");
+			if (this._file != null){
+				this._target.close();
+				Files.copy(this._file.toPath(), Dashboard.this._out);
+				this._file.delete();
+				this._file = null;
+			}//end if
+			this._target = Dashboard.this._out;
+			Dashboard.this._live = this;
+		}//end live
+
+		/**
+		 * Method to take the terminal back once the report was printed.
+		 * Called with the dashboard locked.
+		 */
+		void end() {
+			this._ended = true;
+			if (Dashboard.this._live == this) Dashboard.this._live = null;
+		}//end end
+	}//end Spool
+
+	private final MechanicShop _esql;
+	private final PrintStream _out;
+	//report that has the terminal, null when none does
+	private Spool _live = null;
+
+	/**
+	 * @param esql whose pool runs the reports; it needs REPORTS connections
+	 *        to run them all at once
+	 * @param out where the reports are printed
+	 */
+	public Dashboard(MechanicShop esql, PrintStream out) {
+		this._esql = esql;
+		this._out = out;
+	}
+
+	/**
+	 * Method to run the five reports and print them as they complete.
+	 *
+	 * @param timeoutMillis when to cancel the reports still running
+	 * @return the number of reports that completed
+	 */
+	public int run(long timeoutMillis) throws Exception {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		ExecutorService threads = MechanicShopServer.newThreadPerTaskExecutor();
+		CompletionService<Report> done = new ExecutorCompletionService<Report>(threads);
+		Report[] reports = new Report[REPORTS];
+		boolean[] finished = new boolean[REPORTS];
+		boolean[] printed = new boolean[REPORTS];
+		int completed = 0;
+		try{
+			for (int i = 0; i < REPORTS; ++i){
+				reports[i] = new Report(this._esql, new Spool(i));
+				done.submit(reports[i]);
+			}//end for
+			int remaining = REPORTS;
+			try{
+				for (; remaining > 0; --remaining){
+					Future<Report> next = done.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+					if (next == null) break;
+					Report report = get(next);
+					if (report.error == null) ++completed;
+					synchronized (this){
+						finished[report.index] = true;
+						print(reports, finished, printed, timeoutMillis);
+					}//end synchronized
+				}//end for
+			}finally{
+				if (remaining > 0){
+					// timed out or interrupted: stop what still runs on the server
+					for (int i = 0; i < REPORTS; ++i)
+						if (!finished[i]) cancel(reports[i]);
+					long grace = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CANCEL_GRACE_MILLIS);
+					for (; remaining > 0 && done.poll(Math.max(0, grace - System.nanoTime()), TimeUnit.NANOSECONDS) != null; --remaining);
+					synchronized (this){
+						for (int i = 0; i < REPORTS; ++i){
+							if (finished[i]) continue;
+							reports[i].cancelled = true;
+							finished[i] = true;
+						}//end for
+						print(reports, finished, printed, timeoutMillis);
+					}//end synchronized
+				}//end if
+			}//end try
+		}finally{
+			threads.shutdown();
+		}//end try
+		this._out.printf("dashboard: %d of %d reports in %.1f s%n", completed, REPORTS, (System.nanoTime() - start) / 1e9);
+		return completed;
+	}//end run
+
+	/**
+	 * Method to print what can be printed, with the dashboard locked: the
+	 * report that has the terminal once it is finished, then the other
+	 * finished reports from their temp files.  The terminal then goes to a
+	 * running report that already wrote something, if any.
+	 */
+	private void print(Report[] reports, boolean[] finished, boolean[] printed, long timeoutMillis) throws IOException {
+		if (this._live != null){
+			Report live = reports[this._live.index];
+			if (!finished[live.index]) return;
+			footer(live, timeoutMillis);
+			printed[live.index] = true;
+		}//end if
+		for (Report report : reports){
+			if (!finished[report.index] || printed[report.index]) continue;
+			report.spool.live();
+			footer(report, timeoutMillis);
+			printed[report.index] = true;
+		}//end for
+		for (Report report : reports){
+			if (!finished[report.index] && report.spool.started()){
+				report.spool.live();
+				break;
+			}//end if
+		}//end for
+		this._out.flush();
+	}//end print
+
+	/**
+	 * Method to end a printed report with its row count and time, or why
+	 * it did not complete.
+	 */
+	private void footer(Report report, long timeoutMillis) {
+		if (report.cancelled)
+			this._out.println("== cancelled after " + timeoutMillis + " ms ==");
+		else if (report.error != null)
+			this._out.printf("== failed after %.1f s: %s ==%n", report.nanos / 1e9, report.error.getMessage());
+		else
+			this._out.printf("== %d row(s) in %.1f s ==%n", report.rowCount, report.nanos / 1e9);
+		report.spool.end();
+	}//end footer
+
+	private static Report get(Future<Report> done) throws Exception {
+		try{
+			return done.get();
+		}catch (ExecutionException e){
+			if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+			throw e;
+		}//end try
+	}//end get
+
+	private static void cancel(Report report) {
+		try{
+			report.session.cancel();
+		}catch (SQLException e){
+			// the report ends on its own at worst.
+		}//end try
+	}//end cancel
+}//end Dashboard
@@ -0,0 +1,347 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * This class generates synthetic shop data of any size, either as CSV
+ * files in the layout of code/data (loadable with the import command) or
+ * straight into the database with COPY.
+ *
+ * Scale factor 1 is the size of the bundled dataset: 500 customers, 250
+ * mechanics, 5000 cars and about 30000 service requests.  The data is
+ * referentially consistent and skewed like a real shop:
+ *  - 20% of the cars belong to 1% of the customers (fleets of >20 cars),
+ *  - every car is serviced a geometric number of times, with dates and
+ *    odometer readings increasing from one visit to the next, and no
+ *    visit or closing after the day the generator runs,
+ *  - 90% of the requests are closed, after their open date, with a
+ *    log-normal bill.
+ *
+ * Rows are generated in chunks on several threads.  Every chunk draws from
+ * its own random stream seeded from (seed, table, chunk) and chunks are
+ * written in order, so the output only depends on the scale factor, the
+ * seed and the day it runs, not on the number of threads.
+ */
+public class DataGenerator {
+	public static final int CUSTOMERS_PER_SCALE = 500;
+	public static final int MECHANICS_PER_SCALE = 250;
+	public static final int CARS_PER_SCALE = 5000;
+	//rows of the driving table (customers, mechanics or cars) per chunk
+	public static final int CHUNK = 10000;
+	//service requests of one car; rid = car * MAX_REQUESTS + visit
+	public static final int MAX_REQUESTS = 32;
+	public static final double MEAN_REQUESTS = 6.0;
+	public static final double FLEET_CUSTOMERS = 0.01;
+	public static final double FLEET_CARS = 0.2;
+	public static final double CLOSED_SHARE = 0.9;
+	//first possible service date
+	public static final long FIRST_DAY = LocalDate.of(2010, 1, 1).toEpochDay();
+
+	static final String[] FIRST_NAMES = { "Armand", "Alberto", "Wyatt", "Alfonso", "Pearl", "Vincent", "Breanne", "Annette", "Dorothy", "Ina", "Alane", "Alline", "Nova", "Tomeka", "Drusilla", "Lloyd", "Connie", "Maryetta", "Krystle", "Julieta" };
+	static final String[] LAST_NAMES = { "Enderle", "Scarlett", "Ruoff", "Denmark", "Straube", "Wohlwend", "Flick", "Onken", "Sherk", "Lecroy", "Piland", "Bodiford", "Imburgia", "Amerson", "Kogan", "Woodruff", "Smolen", "Palmateer", "Trembath", "Marts" };
+	static final String[] STREETS = { "Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Young Avenue", "East Warren St.", "Shipley Dr." };
+	static final String[] CITIES = { "Melbourne", "Baton Rouge", "Cockeysville", "Oak Forest", "New Brunswick", "Klamath Falls" };
+	static final String[] MAKES = { "Toyota", "Ford", "Jaguar", "Volvo", "Subaru", "Cadillac", "Saab", "Lotus", "Skoda", "Mini", "Holden", "Isuzu" };
+	static final String[] MODELS = { "Prius", "Sunny", "C5", "M1", "Corolla", "Focus", "XF", "S60", "Impreza", "Elise" };
+	static final String[] COMPLAINTS = { "I cannot hear the horn", "Change oil", "Replace windows", "I cannot hear the radio", "Passenger side is always empty", "The wheel does not turn right", "Burns too much gas", "It is not fast enough", "No brakes" };
+	static final String[] COMMENTS = { "Needs new Tires", "Breaks", "Made it faster", "We changed the color", "Change Roof", "I do not know", "Buy a new Car", "We lost your car", "Changed Oil", "You are missing an engine" };
+
+	//tables in foreign key order, same levels as BulkImport
+	static final String[][] LEVELS = {
+		{ "Customer", "Mechanic", "Car" },
+		{ "Owns", "Service_Request" },
+		{ "Closed_Request" },
+	};
+
+	private final int _customers;
+	private final int _mechanics;
+	private final int _cars;
+	private final int _fleet;
+	private final long _seed;
+	//last possible service or closing date, the day the generator was made
+	private final long _today;
+	private final int _threads;
+	private final PrintStream _out;
+
+	public DataGenerator(double scale, long seed, int threads, PrintStream out) {
+		this._customers = Math.max(1, (int) Math.round(CUSTOMERS_PER_SCALE * scale));
+		this._mechanics = Math.max(1, (int) Math.round(MECHANICS_PER_SCALE * scale));
+		long cars = Math.max(1, Math.round(CARS_PER_SCALE * scale));
+		if (cars * MAX_REQUESTS > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("scale factor too large, rids would overflow: " + scale);
+		this._cars = (int) cars;
+		this._fleet = Math.max(1, (int) (this._customers * FLEET_CUSTOMERS));
+		this._seed = seed;
+		this._today = LocalDate.now().toEpochDay();
+		this._threads = Math.max(1, threads);
+		this._out = out;
+	}
+
+	/**
+	 * Destination of the rows of one table.
+	 */
+	interface Sink {
+		void write(byte[] rows) throws IOException, SQLException;
+		void close() throws IOException, SQLException;
+	}
+
+	/**
+	 * Method to write every table as a CSV file of a directory, named and
+	 * laid out like the files of code/data (dates as M/d/yyyy 00:00).
+	 */
+	public void writeCsv(File dir) throws Exception {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create " + dir);
+		ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+		try{
+			for (String[] level : LEVELS){
+				for (String table : level){
+					final OutputStream file = new BufferedOutputStream(new FileOutputStream(new File(dir, table.toLowerCase() + ".csv")), 1 << 16);
+					long rows = generate(table, true, workers, new Sink() {
+						public void write(byte[] rows) throws IOException { file.write(rows); }
+						public void close() throws IOException { file.close(); }
+					});
+					this._out.println(table + ": " + rows + " rows");
+				}//end for
+			}//end for
+		}finally{
+			workers.shutdownNow();
+		}//end try
+	}//end writeCsv
+
+	/**
+	 * Method to load every table straight into the database with COPY.
+	 * Every table is truncated first, so the caller must have asked for
+	 * it (see the generate command); tables of one level are loaded at
+	 * the same time, each on its own pooled connection.
+	 */
+	public void copyInto(ConnectionPool pool, IdAllocator ids) throws Exception {
+		BulkImport loader = new BulkImport(pool, ids, this._out);
+		loader.truncate();
+		final ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+		ExecutorService tables = Executors.newCachedThreadPool();
+		try{
+			for (String[] level : LEVELS){
+				List<Future<Long>> loads = new ArrayList<Future<Long>>();
+				for (final String table : level)
+					loads.add(tables.submit(() -> copy(pool, table, workers)));
+				for (int i = 0; i < level.length; ++i){
+					try{
+						this._out.println(level[i] + ": " + loads.get(i).get() + " rows");
+					}catch (ExecutionException e){
+						if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+						throw e;
+					}//end try
+				}//end for
+			}//end for
+		}finally{
+			tables.shutdownNow();
+			workers.shutdownNow();
+		}//end try
+		loader.afterLoad();
+	}//end copyInto
+
+	private long copy(ConnectionPool pool, String table, ExecutorService workers) throws Exception {
+		PooledConnection conn = pool.acquire();
+		try{
+			final CopyIn copy = conn.connection().unwrap(PGConnection.class).getCopyAPI().copyIn("COPY " + table + " FROM STDIN WITH DELIMITER ','");
+			try{
+				return generate(table, false, workers, new Sink() {
+					public void write(byte[] rows) throws SQLException { copy.writeToCopy(rows, 0, rows.length); }
+					public void close() throws SQLException { copy.endCopy(); }
+				});
+			}catch (Exception e){
+				if (copy.isActive()) copy.cancelCopy();
+				throw e;
+			}//end try
+		}catch (SQLException e){
+			conn.failed(e);
+			throw e;
+		}finally{
+			pool.release(conn);
+		}//end try
+	}//end copy
+
+	/**
+	 * Method to generate one table chunk by chunk on the worker threads and
+	 * hand the chunks to the sink in order.  At most two chunks per thread
+	 * are in flight, so memory use does not depend on the scale factor.
+	 *
+	 * @param csv whether dates are written like code/data rather than as yyyy-MM-dd
+	 * @return the number of rows generated
+	 */
+	long generate(final String table, final boolean csv, ExecutorService workers, Sink sink) throws Exception {
+		int driving = table.equals("Customer") ? this._customers : table.equals("Mechanic") ? this._mechanics : this._cars;
+		int chunks = (driving + CHUNK - 1) / CHUNK;
+		ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+		long rows = 0;
+		int next = 0;
+		try{
+			while (next < chunks || !inFlight.isEmpty()){
+				while (next < chunks && inFlight.size() < 2 * this._threads){
+					final int chunk = next++;
+					inFlight.add(workers.submit(() -> chunk(table, chunk, csv)));
+				}//end while
+				Chunk done;
+				try{
+					done = inFlight.poll().get();
+				}catch (ExecutionException e){
+					if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+					throw e;
+				}//end try
+				sink.write(done.rows.toString().getBytes(StandardCharsets.UTF_8));
+				rows += done.count;
+			}//end while
+		}finally{
+			for (Future<Chunk> f : inFlight) f.cancel(true);
+		}//end try
+		sink.close();
+		return rows;
+	}//end generate
+
+	/**
+	 * Rows of one chunk of one table.
+	 */
+	static class Chunk {
+		final StringBuilder rows = new StringBuilder(1 << 16);
+		long count = 0;
+	}
+
+	/**
+	 * Method to generate chunk number chunk of a table.  The tables driven
+	 * by cars (Car, Owns, Service_Request, Closed_Request) replay the same
+	 * random stream, so the rows of all four agree with each other.
+	 */
+	Chunk chunk(String table, int chunk, boolean csv) {
+		Chunk out = new Chunk();
+		int first = chunk * CHUNK;
+		if (table.equals("Customer")){
+			SplittableRandom r = random(1, chunk);
+			for (int id = first; id < Math.min(this._customers, first + CHUNK); ++id)
+				customer(out, r, id);
+		}else if (table.equals("Mechanic")){
+			SplittableRandom r = random(2, chunk);
+			for (int id = first; id < Math.min(this._mechanics, first + CHUNK); ++id)
+				mechanic(out, r, id);
+		}else{
+			SplittableRandom r = random(3, chunk);
+			for (int car = first; car < Math.min(this._cars, first + CHUNK); ++car)
+				car(out, r, car, table, csv);
+		}//end if
+		return out;
+	}//end chunk
+
+	private SplittableRandom random(int table, int chunk) {
+		return new SplittableRandom(this._seed * 0x9E3779B97F4A7C15L + table * 0xBF58476D1CE4E5B9L + chunk);
+	}
+
+	private void customer(Chunk out, SplittableRandom r, int id) {
+		StringBuilder b = out.rows;
+		b.append(id).append(',').append(pick(r, FIRST_NAMES)).append(',').append(pick(r, LAST_NAMES));
+		b.append(",(").append(100 + r.nextInt(900)).append(')').append(100 + r.nextInt(900)).append('-').append(1000 + r.nextInt(9000));
+		b.append(',').append(1 + r.nextInt(9999)).append(' ').append(pick(r, STREETS)).append(' ').append(pick(r, CITIES)).append('\n');
+		out.count++;
+	}
+
+	private void mechanic(Chunk out, SplittableRandom r, int id) {
+		out.rows.append(id).append(',').append(pick(r, FIRST_NAMES)).append(',').append(pick(r, LAST_NAMES)).append(',').append(r.nextInt(30)).append('\n');
+		out.count++;
+	}
+
+	/**
+	 * Method to generate one car and everything hanging off it, appending
+	 * only the rows of the requested table.  All random draws happen
+	 * whatever the table, to keep the stream aligned.
+	 */
+	private void car(Chunk out, SplittableRandom r, int car, String table, boolean csv) {
+		StringBuilder b = out.rows;
+		// 6 letters followed by the car number, unique by construction
+		char[] letters = new char[6];
+		for (int i = 0; i < letters.length; ++i) letters[i] = (char) ('A' + r.nextInt(26));
+		String make = pick(r, MAKES);
+		String model = pick(r, MODELS);
+		int year = 1970 + r.nextInt(48);
+		int owner = r.nextDouble() < FLEET_CARS ? r.nextInt(this._fleet) : r.nextInt(this._customers);
+		int visits = Math.min(MAX_REQUESTS, (int) (-Math.log(1.0 - r.nextDouble()) * MEAN_REQUESTS));
+		long day = FIRST_DAY + r.nextInt(6 * 365);
+		int odometer = 1000 + r.nextInt(50000);
+
+		String vin = null;
+		if (!table.equals("Closed_Request")){
+			StringBuilder v = new StringBuilder(16).append(letters);
+			String number = Long.toString(car);
+			for (int i = number.length(); i < 10; ++i) v.append('0');
+			vin = v.append(number).toString();
+		}//end if
+
+		if (table.equals("Car")){
+			b.append(vin).append(',').append(make).append(',').append(model).append(',').append(year).append('\n');
+			out.count++;
+		}else if (table.equals("Owns")){
+			b.append(car).append(',').append(owner).append(',').append(vin).append('\n');
+			out.count++;
+		}//end if
+
+		for (int visit = 0; visit < visits; ++visit){
+			day += 7 + r.nextInt(174);
+			// the car's history ends today; every table stops at the same visit
+			if (day > this._today) break;
+			odometer += 500 + r.nextInt(15000);
+			String complaint = pick(r, COMPLAINTS);
+			boolean closed = r.nextDouble() < CLOSED_SHARE;
+			long closeDay = Math.min(this._today, day + 1 + r.nextInt(30));
+			int mid = r.nextInt(this._mechanics);
+			String comment = pick(r, COMMENTS);
+			int bill = (int) Math.max(1, Math.min(100000, Math.exp(4.0 + 1.0 * nextGaussian(r))));
+			int rid = car * MAX_REQUESTS + visit;
+
+			if (table.equals("Service_Request")){
+				b.append(rid).append(',').append(owner).append(',').append(vin).append(',');
+				date(b, day, csv).append(',').append(odometer).append(',').append(complaint).append('\n');
+				out.count++;
+			}else if (table.equals("Closed_Request") && closed){
+				// one closing per request, so the rid doubles as wid
+				b.append(rid).append(',').append(rid).append(',').append(mid).append(',');
+				date(b, closeDay, csv).append(',').append(comment).append(',').append(bill).append('\n');
+				out.count++;
+			}//end if
+		}//end for
+	}//end car
+
+	/**
+	 * Method to append a date as yyyy-MM-dd, or as M/d/yyyy 00:00 like the
+	 * files of code/data.
+	 */
+	private static StringBuilder date(StringBuilder b, long day, boolean csv) {
+		LocalDate date = LocalDate.ofEpochDay(day);
+		if (!csv) return b.append(date);
+		return b.append(date.getMonthValue()).append('/').append(date.getDayOfMonth()).append('/').append(date.getYear()).append(" 00:00");
+	}//end date
+
+	private static String pick(SplittableRandom r, String[] values) {
+		return values[r.nextInt(values.length)];
+	}
+
+	private static double nextGaussian(SplittableRandom r) {
+		// Box-Muller, SplittableRandom has no nextGaussian before JDK 17
+		double u = 1.0 - r.nextDouble();
+		return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * r.nextDouble());
+	}
+}//end DataGenerator
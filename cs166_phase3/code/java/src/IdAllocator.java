@@ -0,0 +1,74 @@
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class hands out primary keys for the MechanicShop tables.
+ *
+ * Every id comes from a Postgres sequence (see create.sql).  The sequences
+ * are created with INCREMENT BY n, so one nextval() reserves a block of n
+ * consecutive ids for this client.  Ids are then served from the block in
+ * memory and the database is only asked again once the block is used up,
+ * which keeps every insert at O(1) round trips and never hands the same
+ * id to two terminals.
+ */
+public class IdAllocator {
+	public static final String CUSTOMER = "customer_id_seq";
+	public static final String MECHANIC = "mechanic_id_seq";
+	public static final String OWNS = "owns_ownership_id_seq";
+	public static final String SERVICE_REQUEST = "service_request_rid_seq";
+	public static final String CLOSED_REQUEST = "closed_request_wid_seq";
+
+	//reference to the database the sequences live in
+	private final MechanicShop _esql;
+	//block of ids currently reserved for each sequence
+	private final ConcurrentHashMap<String, Block> _blocks = new ConcurrentHashMap<String, Block>();
+
+	public IdAllocator(MechanicShop esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to get the next free id of a sequence.  Only the first call
+	 * after a block is exhausted goes to the DBMS.
+	 *
+	 * @param sequence name of the DB sequence
+	 * @return an id no other client will receive
+	 * @throws java.sql.SQLException when a new block could not be reserved
+	 */
+	public int nextId(String sequence) throws SQLException {
+		Block block = this._blocks.get(sequence);
+		if (block == null) {
+			block = new Block(this._esql.getSeqIncrement(sequence));
+			Block raced = this._blocks.putIfAbsent(sequence, block);
+			if (raced != null) block = raced;
+		}//end if
+		synchronized (block) {
+			if (block.next >= block.end) {
+				block.next = this._esql.getNextSeqVal(sequence);
+				block.end = block.next + block.size;
+			}//end if
+			return block.next++;
+		}
+	}//end nextId
+
+	/**
+	 * Method to drop every reserved block, e.g. after the sequences were
+	 * reset by a bulk load.  Unused ids of the dropped blocks are skipped.
+	 */
+	public void reset() {
+		this._blocks.clear();
+	}//end reset
+
+	/**
+	 * A range [next, end) of ids reserved by one nextval() call.
+	 */
+	private static class Block {
+		final int size;
+		int next;
+		int end;
+
+		Block(int size) {
+			this.size = size;
+		}
+	}//end Block
+}//end IdAllocator
@@ -0,0 +1,423 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * This class is the write-behind intake of service requests (see
+ * MechanicShop.intakeServiceRequest()).  A request is appended to a
+ * memory-mapped journal file and acknowledged as soon as its bytes are
+ * forced to disk; a background thread inserts the journaled requests into
+ * Service_Request in batches, one transaction per batch, so the clerk
+ * waits for a local fsync instead of the database.
+ *
+ * Clerks appending at the same time share one force: each forces the
+ * journal up to the end of what was appended so far, and whoever comes
+ * next finds their request already on disk (group commit).
+ *
+ * The file starts with a header holding the generation and how far the
+ * requests are in the database; every record holds its length, the
+ * generation and a CRC32.  On open the records after that point are read
+ * back, up to the first torn or stale one, and inserted again, so a crash
+ * loses no acknowledged request.  The insert skips rids already in the
+ * table, so a request inserted just before the crash is not doubled.
+ * When the file is full, appending waits until every request is in the
+ * database and starts over at the top with the next generation.
+ */
+public class IntakeJournal {
+	public static final int DEFAULT_CAPACITY = Integer.getInteger("mechanicshop.intakeJournalBytes", 64 << 20);
+	//requests inserted per transaction at most
+	public static final int BATCH_SIZE = 500;
+	//how long close() waits for the journal to drain
+	public static final long CLOSE_TIMEOUT_MILLIS = 30000;
+	static final int MAGIC = 0x4D534A31;
+	//magic, generation, flushed offset
+	static final int HEADER = 16;
+	//length, generation, CRC
+	static final int RECORD_HEADER = 12;
+
+	/**
+	 * One journaled request, with where its record ends.
+	 */
+	static class Entry {
+		final int rid;
+		final int customerId;
+		final String vin;
+		final java.sql.Date date;
+		final int odometer;
+		final String complaint;
+		final int end;
+
+		Entry(int rid, int customerId, String vin, java.sql.Date date, int odometer, String complaint, int end) {
+			this.rid = rid;
+			this.customerId = customerId;
+			this.vin = vin;
+			this.date = date;
+			this.odometer = odometer;
+			this.complaint = complaint;
+			this.end = end;
+		}
+
+		Object[] row() {
+			return new Object[] { this.rid, this.customerId, this.vin, this.date, this.odometer, this.complaint };
+		}
+	}//end Entry
+
+	private final MechanicShop _esql;
+	private final PrintStream _log;
+	private final FileChannel _channel;
+	private final MappedByteBuffer _map;
+	private final int _capacity;
+	//requests appended and not yet inserted, in journal order
+	private final LinkedBlockingQueue<Entry> _pending = new LinkedBlockingQueue<Entry>();
+	private final Thread _flusher;
+
+	//guarded by this
+	private int _generation;
+	private int _flushed;
+	private boolean _closed = false;
+	//end of the last record appended
+	private volatile int _written;
+	//end of what is forced to disk, guarded by _syncLock
+	private final Object _syncLock = new Object();
+	private int _synced;
+
+	//requests the database turned down after they were acknowledged
+	private final LongAdder _rejected = new LongAdder();
+
+	/**
+	 * Method to open the journal named by the mechanicshop.intakeJournal
+	 * system property, if set.
+	 *
+	 * @return the journal, null when the property is not set
+	 */
+	public static IntakeJournal fromProperties(MechanicShop esql) throws IOException {
+		String file = System.getProperty("mechanicshop.intakeJournal");
+		if (file == null) return null;
+		return new IntakeJournal(esql, new File(file), DEFAULT_CAPACITY, System.err);
+	}//end fromProperties
+
+	/**
+	 * Method to open or create a journal and start inserting what it holds.
+	 *
+	 * @param esql inserts the requests
+	 * @param file the journal, created if missing
+	 * @param capacity the size of a new journal file in bytes
+	 * @param log where requests the database turned down are reported
+	 */
+	public IntakeJournal(MechanicShop esql, File file, int capacity, PrintStream log) throws IOException {
+		this._esql = esql;
+		this._log = log;
+		this._channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this._capacity = (int) Math.max(capacity, Math.min(this._channel.size(), Integer.MAX_VALUE));
+		this._map = this._channel.map(FileChannel.MapMode.READ_WRITE, 0, this._capacity);
+		if (this._map.getInt(0) == MAGIC){
+			this._generation = this._map.getInt(4);
+			this._flushed = (int) this._map.getLong(8);
+			this._written = replay();
+		}else{
+			this._generation = 1;
+			this._flushed = HEADER;
+			this._written = HEADER;
+		}//end if
+		// nothing after the last record may pass for one later
+		for (int i = this._written; i < this._capacity; ++i)
+			if (this._map.get(i) != 0) this._map.put(i, (byte) 0);
+		writeHeader();
+		this._map.force();
+		this._synced = this._written;
+		if (!this._pending.isEmpty())
+			log.println("intake journal: replaying " + this._pending.size() + " service request(s) from " + file);
+		this._flusher = new Thread(this::flushLoop, "intake-journal");
+		this._flusher.setDaemon(true);
+		this._flusher.start();
+	}
+
+	/**
+	 * Method to read the records after the flushed offset into the
+	 * pending queue.
+	 *
+	 * @return the end of the last valid record
+	 */
+	private int replay() {
+		int position = this._flushed;
+		while (true){
+			Entry entry = read(position);
+			if (entry == null) return position;
+			this._pending.add(entry);
+			position = entry.end;
+		}//end while
+	}//end replay
+
+	/**
+	 * Method to decode the record at an offset.
+	 *
+	 * @return the request, null at the end of the journal or on a torn or
+	 *         stale record
+	 */
+	private Entry read(int position) {
+		if (position < HEADER || position + RECORD_HEADER > this._capacity) return null;
+		int length = this._map.getInt(position);
+		if (length <= 0 || length > this._capacity - position - RECORD_HEADER) return null;
+		if (this._map.getInt(position + 4) != this._generation) return null;
+		ByteBuffer payload = this._map.duplicate();
+		payload.limit(position + RECORD_HEADER + length).position(position + RECORD_HEADER);
+		byte[] bytes = new byte[length];
+		payload.get(bytes);
+		if (crc(this._generation, bytes) != this._map.getInt(position + 8)) return null;
+		ByteBuffer in = ByteBuffer.wrap(bytes);
+		int rid = in.getInt();
+		int customerId = in.getInt();
+		int odometer = in.getInt();
+		java.sql.Date date = java.sql.Date.valueOf(LocalDate.ofEpochDay(in.getInt()));
+		byte[] vin = new byte[in.getShort()];
+		in.get(vin);
+		int complaintLength = in.getInt();
+		String complaint = null;
+		if (complaintLength >= 0){
+			byte[] text = new byte[complaintLength];
+			in.get(text);
+			complaint = new String(text, StandardCharsets.UTF_8);
+		}//end if
+		return new Entry(rid, customerId, new String(vin, StandardCharsets.UTF_8), date, odometer, complaint, position + RECORD_HEADER + length);
+	}//end read
+
+	/**
+	 * Method to journal a service request.  Returns once the request is on
+	 * disk; it reaches Service_Request shortly after.
+	 *
+	 * @throws java.lang.IllegalArgumentException when the request is larger
+	 *         than the journal
+	 * @throws java.io.IOException when the journal is closed
+	 */
+	public void append(int rid, int customerId, String vin, java.sql.Date date, int odometer, String complaint) throws IOException {
+		byte[] vinBytes = vin.getBytes(StandardCharsets.UTF_8);
+		byte[] text = complaint == null ? null : complaint.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer payload = ByteBuffer.allocate(22 + vinBytes.length + (text == null ? 0 : text.length));
+		payload.putInt(rid).putInt(customerId).putInt(odometer).putInt((int) date.toLocalDate().toEpochDay());
+		payload.putShort((short) vinBytes.length).put(vinBytes);
+		payload.putInt(text == null ? -1 : text.length);
+		if (text != null) payload.put(text);
+		byte[] bytes = payload.array();
+		if (RECORD_HEADER + bytes.length > this._capacity - HEADER)
+			throw new IllegalArgumentException("service request too large for the intake journal");
+		int end;
+		synchronized (this){
+			while (this._written + RECORD_HEADER + bytes.length > this._capacity){
+				if (this._closed) throw new IOException("intake journal closed");
+				if (this._flushed == this._written){
+					wrap();
+					break;
+				}//end if
+				// full: wait for the flusher to catch up
+				try{
+					wait(1000);
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while the intake journal is full", e);
+				}//end try
+			}//end while
+			if (this._closed) throw new IOException("intake journal closed");
+			int position = this._written;
+			ByteBuffer out = this._map.duplicate();
+			out.position(position);
+			out.putInt(bytes.length).putInt(this._generation).putInt(crc(this._generation, bytes)).put(bytes);
+			end = position + RECORD_HEADER + bytes.length;
+			this._written = end;
+			this._pending.add(new Entry(rid, customerId, vin, date, odometer, complaint, end));
+		}//end synchronized
+		sync(end);
+	}//end append
+
+	/**
+	 * Method to force the journal to disk up to at least end.  One force
+	 * covers everything appended before it, so concurrent appends mostly
+	 * find their record already forced.
+	 */
+	private void sync(int end) {
+		synchronized (this._syncLock){
+			if (this._synced >= end) return;
+			int written = this._written;
+			this._map.force(this._synced, written - this._synced);
+			this._synced = written;
+		}//end synchronized
+	}//end sync
+
+	/**
+	 * Method to start over at the top of the file, once every request is
+	 * in the database.  Called with the lock held.
+	 */
+	private void wrap() {
+		synchronized (this._syncLock){
+			++this._generation;
+			this._flushed = HEADER;
+			this._written = HEADER;
+			writeHeader();
+			this._map.force(0, HEADER);
+			this._synced = HEADER;
+		}//end synchronized
+	}//end wrap
+
+	private void writeHeader() {
+		this._map.putInt(0, MAGIC);
+		this._map.putInt(4, this._generation);
+		this._map.putLong(8, this._flushed);
+	}
+
+	/**
+	 * Method to record that the requests up to end are in the database.
+	 */
+	private synchronized void flushed(int end) {
+		if (end <= this._flushed) return;
+		this._flushed = end;
+		this._map.putLong(8, end);
+		this._map.force(0, HEADER);
+		notifyAll();
+	}//end flushed
+
+	/**
+	 * Method run by the flusher: takes the pending requests in batches
+	 * and inserts each batch in one transaction.  While the database is
+	 * unreachable it tries again with a growing delay; the requests stay
+	 * in the journal meanwhile.  Errors caused by the requests themselves
+	 * never reach it, see insert().
+	 */
+	private void flushLoop() {
+		List<Entry> batch = new ArrayList<Entry>(BATCH_SIZE);
+		long backoff = 100;
+		while (!(isClosed() && this._pending.isEmpty())){
+			try{
+				if (batch.isEmpty()){
+					Entry first = this._pending.poll(100, TimeUnit.MILLISECONDS);
+					if (first == null) continue;
+					batch.add(first);
+					this._pending.drainTo(batch, BATCH_SIZE - 1);
+				}//end if
+				insert(batch);
+				flushed(batch.get(batch.size() - 1).end);
+				batch.clear();
+				backoff = 100;
+			}catch (InterruptedException e){
+				return;
+			}catch (SQLException | RuntimeException e){
+				this._log.println("intake journal: " + batch.size() + " request(s) not inserted, retrying: " + e.getMessage());
+				try{
+					Thread.sleep(backoff);
+				}catch (InterruptedException ie){
+					return;
+				}//end try
+				backoff = Math.min(backoff * 2, 30000);
+			}//end try
+		}//end while
+	}//end flushLoop
+
+	/**
+	 * Method to insert a batch.  If the batch fails for any reason but a
+	 * lost connection (see isTransient()), e.g. it breaks a constraint or
+	 * holds a value Postgres does not accept, the requests are inserted
+	 * one by one, so a single bad request is reported and dropped without
+	 * holding up the others.
+	 */
+	private void insert(List<Entry> batch) throws SQLException {
+		List<Object[]> rows = new ArrayList<Object[]>(batch.size());
+		for (Entry entry : batch) rows.add(entry.row());
+		try{
+			report(batch, this._esql.writeServiceRequests(rows));
+			return;
+		}catch (SQLException e){
+			if (isTransient(e)) throw e;
+		}//end try
+		for (int i = 0; i < rows.size(); ++i){
+			try{
+				report(batch.subList(i, i + 1), this._esql.writeServiceRequests(rows.subList(i, i + 1)));
+			}catch (SQLException e){
+				if (isTransient(e)) throw e;
+				this._rejected.increment();
+				this._log.println("intake journal: dropped rid " + batch.get(i).rid + ": " + e.getMessage());
+			}//end try
+		}//end for
+	}//end insert
+
+	/**
+	 * Method to tell whether an insert may succeed when tried again as is:
+	 * the connection was lost (class 08), the server is shutting down
+	 * (57P0x) or the transaction lost a deadlock or serialization conflict
+	 * (class 40).  Any other error comes from the request itself.
+	 */
+	static boolean isTransient(SQLException e) {
+		String state = e.getSQLState();
+		return state == null || state.startsWith("08") || state.startsWith("57P0") || state.startsWith("40");
+	}//end isTransient
+
+	//reports the requests that inserted no row
+	private void report(List<Entry> batch, int[] rowCounts) {
+		for (int i = 0; i < rowCounts.length; ++i){
+			if (rowCounts[i] != 0) continue;
+			this._rejected.increment();
+			this._log.println("intake journal: rid " + batch.get(i).rid + " not inserted, already there or a higher odometer reading of " + batch.get(i).vin + " is on record");
+		}//end for
+	}//end report
+
+	/**
+	 * @return the number of requests journaled and not yet inserted
+	 */
+	public int pending() {
+		return this._pending.size();
+	}
+
+	/**
+	 * @return the number of acknowledged requests the database turned down
+	 */
+	public long rejected() {
+		return this._rejected.sum();
+	}
+
+	private synchronized boolean isClosed() {
+		return this._closed;
+	}
+
+	/**
+	 * Method to stop taking requests and wait, for a while, until the
+	 * pending ones are inserted.  Those still pending stay in the journal
+	 * for the next open.
+	 */
+	public void close() {
+		synchronized (this){
+			this._closed = true;
+			notifyAll();
+		}//end synchronized
+		try{
+			this._flusher.join(CLOSE_TIMEOUT_MILLIS);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}//end try
+		this._flusher.interrupt();
+		if (!this._pending.isEmpty())
+			this._log.println("intake journal: " + this._pending.size() + " request(s) left for the next start");
+		try{
+			this._map.force();
+			this._channel.close();
+		}catch (IOException e){
+			// the records are forced already.
+		}//end try
+	}//end close
+
+	private static int crc(int generation, byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(ByteBuffer.allocate(4).putInt(generation).array());
+		crc.update(bytes);
+		return (int) crc.getValue();
+	}
+}//end IntakeJournal
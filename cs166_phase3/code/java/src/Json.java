@@ -0,0 +1,134 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class reads and writes the little JSON the HTTP API needs: request
+ * bodies are flat objects of strings, numbers, booleans and nulls, and
+ * responses are written by appending quoted values.
+ */
+public class Json {
+	private final String _text;
+	private int _pos = 0;
+
+	private Json(String text) {
+		this._text = text;
+	}
+
+	/**
+	 * Method to parse a flat JSON object.
+	 *
+	 * @return the members in order; numbers are Longs or Doubles
+	 * @throws java.lang.IllegalArgumentException when text is not such an object
+	 */
+	public static Map<String, Object> parseObject(String text) {
+		Json json = new Json(text);
+		Map<String, Object> members = new LinkedHashMap<String, Object>();
+		json.expect('{');
+		if (json.peek() == '}'){
+			json._pos++;
+		}else{
+			do{
+				String name = json.string();
+				json.expect(':');
+				members.put(name, json.value());
+			}while (json.next(',', '}') == ',');
+		}//end if
+		if (json.peek() != 0) throw json.error("trailing characters");
+		return members;
+	}//end parseObject
+
+	/**
+	 * Method to append a string as a JSON string literal.
+	 */
+	public static StringBuilder quote(StringBuilder out, String value) {
+		if (value == null) return out.append("null");
+		out.append('"');
+		for (int i = 0; i < value.length(); ++i){
+			char c = value.charAt(i);
+			switch (c){
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+					else out.append(c);
+			}//end switch
+		}//end for
+		return out.append('"');
+	}//end quote
+
+	public static String quote(String value) {
+		return quote(new StringBuilder(), value).toString();
+	}
+
+	private Object value() {
+		char c = peek();
+		if (c == '"') return string();
+		if (this._text.startsWith("true", this._pos)){ this._pos += 4; return Boolean.TRUE; }
+		if (this._text.startsWith("false", this._pos)){ this._pos += 5; return Boolean.FALSE; }
+		if (this._text.startsWith("null", this._pos)){ this._pos += 4; return null; }
+		int start = this._pos;
+		while (this._pos < this._text.length() && "+-0123456789.eE".indexOf(this._text.charAt(this._pos)) >= 0) this._pos++;
+		String number = this._text.substring(start, this._pos);
+		try{
+			if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0)
+				return Long.parseLong(number);
+			return Double.parseDouble(number);
+		}catch (NumberFormatException e){
+			throw error("expected a value");
+		}//end try
+	}//end value
+
+	private String string() {
+		expect('"');
+		StringBuilder s = new StringBuilder();
+		while (true){
+			if (this._pos >= this._text.length()) throw error("unterminated string");
+			char c = this._text.charAt(this._pos++);
+			if (c == '"') return s.toString();
+			if (c != '\\'){
+				s.append(c);
+				continue;
+			}//end if
+			if (this._pos >= this._text.length()) throw error("unterminated string");
+			char e = this._text.charAt(this._pos++);
+			switch (e){
+				case 'n': s.append('\n'); break;
+				case 'r': s.append('\r'); break;
+				case 't': s.append('\t'); break;
+				case 'b': s.append('\b'); break;
+				case 'f': s.append('\f'); break;
+				case 'u':
+					if (this._pos + 4 > this._text.length()) throw error("bad escape");
+					s.append((char) Integer.parseInt(this._text.substring(this._pos, this._pos + 4), 16));
+					this._pos += 4;
+					break;
+				default: s.append(e);
+			}//end switch
+		}//end while
+	}//end string
+
+	//next non-blank character, 0 at the end
+	private char peek() {
+		while (this._pos < this._text.length() && Character.isWhitespace(this._text.charAt(this._pos))) this._pos++;
+		return this._pos < this._text.length() ? this._text.charAt(this._pos) : 0;
+	}
+
+	private void expect(char c) {
+		if (peek() != c) throw error("expected '" + c + "'");
+		this._pos++;
+	}
+
+	private char next(char a, char b) {
+		char c = peek();
+		if (c != a && c != b) throw error("expected '" + a + "' or '" + b + "'");
+		this._pos++;
+		return c;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException("bad JSON at " + this._pos + ": " + message);
+	}
+}//end Json
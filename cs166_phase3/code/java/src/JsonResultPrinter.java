@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * This class prints a result as a JSON array with one object per row,
+ * keyed by column name.  Like ResultPrinter it writes every row as it is
+ * fetched, so a large report streams out in constant memory.  Values of
+ * numeric columns, by their SQL type, are
+ * written as JSON numbers, CHAR values without their blank padding.
+ */
+public class JsonResultPrinter extends ResultPrinter {
+	public JsonResultPrinter(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public int print(ResultSet rs) throws SQLException, IOException {
+		ResultSetMetaData rsmd = rs.getMetaData ();
+		int numCol = rsmd.getColumnCount ();
+		String[] names = new String[numCol];
+		int[] types = new int[numCol];
+		for (int i = 1; i <= numCol; ++i){
+			names[i - 1] = Json.quote (rsmd.getColumnName (i));
+			types[i - 1] = rsmd.getColumnType (i);
+		}//end for
+		int rowCount = 0;
+		StringBuilder row = new StringBuilder ();
+		this._writer.write ('[');
+		while (rs.next ()){
+			row.setLength (0);
+			row.append (rowCount == 0 ? "\n{" : ",\n{");
+			for (int i = 0; i < numCol; ++i){
+				if (i > 0) row.append (',');
+				row.append (names[i]).append (':');
+				value (row, value (rs, i + 1), types[i]);
+			}//end for
+			this._writer.append (row).append ('}');
+			++rowCount;
+		}//end while
+		this._writer.write ("\n]\n");
+		this._writer.flush ();
+		return rowCount;
+	}//end print
+
+	@Override
+	public int print(String[] header, int[] width, int[] types, List<String[]> rows) throws IOException {
+		StringBuilder row = new StringBuilder ();
+		this._writer.write ('[');
+		for (int r = 0; r < rows.size (); ++r){
+			row.setLength (0);
+			row.append (r == 0 ? "\n{" : ",\n{");
+			String[] values = rows.get (r);
+			for (int i = 0; i < header.length; ++i){
+				if (i > 0) row.append (',');
+				Json.quote (row, header[i]).append (':');
+				value (row, values[i], types[i]);
+			}//end for
+			this._writer.append (row).append ('}');
+		}//end for
+		this._writer.write ("\n]\n");
+		this._writer.flush ();
+		return rows.size ();
+	}//end print
+
+	private static void value(StringBuilder out, String value, int type) {
+		if (value == null){
+			out.append ("null");
+			return;
+		}//end if
+		switch (type){
+			case Types.SMALLINT: case Types.INTEGER: case Types.BIGINT:
+			case Types.NUMERIC: case Types.DECIMAL: case Types.REAL: case Types.DOUBLE:
+				out.append (value);
+				break;
+			case Types.CHAR:
+				int end = value.length ();
+				while (end > 0 && value.charAt (end - 1) == ' ') --end;
+				Json.quote (out, value.substring (0, end));
+				break;
+			default:
+				Json.quote (out, value);
+		}//end switch
+	}//end value
+}//end JsonResultPrinter
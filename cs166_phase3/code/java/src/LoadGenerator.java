@@ -0,0 +1,333 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class simulates clerks working at the same time, to find how many
+ * the shop handles and how it behaves over hours.  Each clerk is a session
+ * of its own on its own pooled connection and runs a random mix of the
+ * menu operations:
+ *
+ *	customer, car, request, close       menu options 1, 3, 4 and 5
+ *	bills, customers-with-cars, old-cars, most-serviced-cars,
+ *	customers-by-total-bill             reports 6 to 10
+ *
+ * Arrivals are open loop: every clerk draws its operations at exponential
+ * intervals (a Poisson process) of rate / clerks per second, whether or
+ * not the previous one is done, as customers walk in regardless of the
+ * queue.  A clerk that falls behind starts the late operations right away,
+ * and their response time is counted from when they were due, not from
+ * when the clerk got to them.  A closed loop, or timing from the actual
+ * start, would hide the waiting a slow operation causes to the ones
+ * queued behind it ("coordinated omission") and report far better tails
+ * than clients see.
+ *
+ * Every interval it prints the throughput, the errors and the response
+ * time quantiles of the interval; at the end the same per operation, with
+ * the service time (from the actual start) next to the response time, and
+ * the errors by kind (duplicate keys, invalid input, ...).
+ */
+public class LoadGenerator {
+	public static final String[] OPERATIONS = {
+		"customer", "car", "request", "close",
+		"bills", "customers-with-cars", "old-cars", "most-serviced-cars", "customers-by-total-bill"
+	};
+	//relative weights of OPERATIONS, a drop-off heavy day
+	static final int[] DEFAULT_MIX = { 10, 10, 35, 25, 4, 4, 4, 4, 4 };
+	public static final long REPORT_INTERVAL_SECONDS = Long.getLong("mechanicshop.loadReportSeconds", 60);
+	//rids the close operation picks from, the most recent ones
+	static final int RIDS = 1 << 16;
+	//SQLSTATE of unique violations
+	static final String DUPLICATE_KEY = "23505";
+
+	private final MechanicShop _esql;
+	private final PrintStream _out;
+	private final int _clerks;
+	private final double _rate;
+	//cumulative weights of OPERATIONS
+	private final int[] _mix;
+
+	//per operation, from when it was due and from when it started
+	private final LatencyHistogram[] _response = new LatencyHistogram[OPERATIONS.length];
+	private final LatencyHistogram[] _service = new LatencyHistogram[OPERATIONS.length];
+	private final LatencyHistogram _all = new LatencyHistogram();
+	private final LongAdder[] _errors = new LongAdder[OPERATIONS.length];
+	//count of every kind of error
+	private final Map<String, LongAdder> _errorKinds = new ConcurrentHashMap<String, LongAdder>();
+
+	//what the operations pick from, loaded by setUp()
+	private ColumnarResult _owned;
+	private ColumnarResult _mechanics;
+	//ring of existing rids: the latest of the table, then those the run opened
+	private final AtomicIntegerArray _rids = new AtomicIntegerArray(RIDS);
+	private final AtomicLong _ridCount = new AtomicLong();
+	private final AtomicInteger _odometer = new AtomicInteger();
+	private final AtomicInteger _cars = new AtomicInteger();
+	//keeps the VINs of different runs apart
+	private final int _run = (int) (System.currentTimeMillis() / 1000) & 0xFFFFFF;
+
+	/**
+	 * @param esql whose pool runs the clerks; it needs one connection per clerk
+	 * @param out where the progress and the summary are printed
+	 * @param clerks number of concurrent sessions
+	 * @param rate operations per second of all clerks together
+	 * @param mix relative weights of OPERATIONS, e.g. "request=50,close=50",
+	 *        null for the default mix
+	 * @throws java.lang.IllegalArgumentException for an invalid mix
+	 */
+	public LoadGenerator(MechanicShop esql, PrintStream out, int clerks, double rate, String mix) {
+		if (clerks < 1 || !(rate > 0))
+			throw new IllegalArgumentException("clerks and rate must be positive");
+		this._esql = esql;
+		this._out = out;
+		this._clerks = clerks;
+		this._rate = rate;
+		this._mix = cumulative(mix == null ? DEFAULT_MIX : parseMix(mix));
+		for (int i = 0; i < OPERATIONS.length; ++i){
+			this._response[i] = new LatencyHistogram();
+			this._service[i] = new LatencyHistogram();
+			this._errors[i] = new LongAdder();
+		}//end for
+	}
+
+	/**
+	 * Method to read a mix such as "request=50,close=50,bills=1"; the
+	 * operations left out are not run.
+	 */
+	static int[] parseMix(String mix) {
+		int[] weights = new int[OPERATIONS.length];
+		for (String part : mix.split(",")){
+			int eq = part.indexOf('=');
+			int op = eq < 0 ? -1 : operation(part.substring(0, eq).trim());
+			if (op < 0)
+				throw new IllegalArgumentException("invalid mix entry " + part + ", expected operation=weight");
+			weights[op] = Integer.parseInt(part.substring(eq + 1).trim());
+			if (weights[op] < 0) throw new IllegalArgumentException("negative weight for " + OPERATIONS[op]);
+		}//end for
+		return weights;
+	}//end parseMix
+
+	private static int operation(String name) {
+		for (int i = 0; i < OPERATIONS.length; ++i)
+			if (OPERATIONS[i].equals(name)) return i;
+		return -1;
+	}
+
+	private static int[] cumulative(int[] weights) {
+		int[] sums = new int[weights.length];
+		int sum = 0;
+		for (int i = 0; i < weights.length; ++i)
+			sums[i] = sum += weights[i];
+		if (sum == 0) throw new IllegalArgumentException("the mix runs nothing");
+		return sums;
+	}//end cumulative
+
+	/**
+	 * Method to load the owners, cars, mechanics and readings the
+	 * operations pick from.
+	 */
+	private void setUp() throws SQLException {
+		this._owned = this._esql.executeQueryAndReturnColumns("SELECT customer_id, car_vin FROM Owns;");
+		this._mechanics = this._esql.executeQueryAndReturnColumns("SELECT id FROM Mechanic;");
+		if (this._owned.rowCount() == 0 || this._mechanics.rowCount() == 0)
+			throw new SQLException("the database has no cars or no mechanics, load some data first");
+		// rids are handed out in blocks, so most numbers below the highest one are not in the table
+		ColumnarResult rids = this._esql.executeQueryAndReturnColumns("SELECT rid FROM Service_Request ORDER BY rid DESC LIMIT " + RIDS + ";");
+		for (int r = rids.rowCount() - 1; r >= 0; --r)
+			opened(rids.getInt(r, 0));
+		// readings only grow, so every new request passes the odometer check
+		this._odometer.set(this._esql.executeQueryAndReturnColumns("SELECT COALESCE(MAX(odometer), 0) FROM Service_Request;").getInt(0, 0));
+	}//end setUp
+
+	/**
+	 * Method to run the clerks for a while and print the summary.
+	 *
+	 * @param minutes how long to run
+	 * @return the number of operations that failed
+	 */
+	public long run(double minutes) throws Exception {
+		setUp();
+		long start = System.nanoTime();
+		final long end = start + (long) (minutes * 60e9);
+		this._out.printf("%d clerk(s), %.1f operations/s for %.1f min%n", this._clerks, this._rate, minutes);
+		ExecutorService threads = MechanicShopServer.newThreadPerTaskExecutor();
+		List<Future<?>> clerks = new ArrayList<Future<?>>();
+		try{
+			for (int i = 0; i < this._clerks; ++i){
+				final MechanicShop session = this._esql.newSession(null, new PrintStream(OutputStream.nullOutputStream()));
+				clerks.add(threads.submit(() -> clerk(session, start, end)));
+			}//end for
+			long[] previous = this._all.snapshot();
+			long previousErrors = 0;
+			long interval = TimeUnit.SECONDS.toNanos(REPORT_INTERVAL_SECONDS);
+			for (long next = start + interval; !done(clerks); next += interval){
+				while (System.nanoTime() < next && !done(clerks))
+					Thread.sleep(Math.min(1000, Math.max(1, (next - System.nanoTime()) / 1000000)));
+				long[] counts = this._all.snapshot();
+				long errors = errors();
+				for (int b = 0; b < counts.length; ++b) previous[b] = counts[b] - previous[b];
+				progress(System.nanoTime() - start, previous, errors - previousErrors, Math.min(interval, System.nanoTime() - (next - interval)));
+				previous = counts;
+				previousErrors = errors;
+			}//end for
+			for (Future<?> clerk : clerks) clerk.get();
+		}finally{
+			threads.shutdownNow();
+		}//end try
+		summary(System.nanoTime() - start);
+		return errors();
+	}//end run
+
+	/**
+	 * Method run by every clerk: operations at exponential intervals, each
+	 * timed from when it was due.
+	 */
+	private void clerk(MechanicShop session, long start, long end) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		double meanNanos = this._clerks * 1e9 / this._rate;
+		long due = start;
+		while (true){
+			due += (long) (-Math.log(1 - random.nextDouble()) * meanNanos);
+			if (due >= end || Thread.currentThread().isInterrupted()) return;
+			for (long now; (now = System.nanoTime()) < due; )
+				LockSupport.parkNanos(due - now);
+			int op = pick(random);
+			long begin = System.nanoTime();
+			try{
+				execute(session, op, random);
+			}catch (Exception e){
+				this._errors[op].increment();
+				this._errorKinds.computeIfAbsent(kind(e), k -> new LongAdder()).increment();
+			}//end try
+			long done = System.nanoTime();
+			this._response[op].record(done - due);
+			this._service[op].record(done - begin);
+			this._all.record(done - due);
+		}//end while
+	}//end clerk
+
+	private int pick(ThreadLocalRandom random) {
+		int r = random.nextInt(this._mix[this._mix.length - 1]);
+		int op = 0;
+		while (this._mix[op] <= r) ++op;
+		return op;
+	}
+
+	/**
+	 * Method to run one operation with random, valid input.
+	 */
+	private void execute(MechanicShop session, int op, ThreadLocalRandom random) throws SQLException {
+		int owner = random.nextInt(this._owned.rowCount());
+		switch (op){
+			case 0:
+				session.addCustomer("Load", "Clerk" + random.nextInt(1000), String.format("(%03d)%03d-%04d", random.nextInt(1000), random.nextInt(1000), random.nextInt(10000)), "1 Load Test Way");
+				break;
+			case 1:
+				String vin = String.format("LG%06X%08X", this._run, this._cars.incrementAndGet());
+				session.addCar(vin, "Toyota", "Prius", 1990 + random.nextInt(30), this._owned.getInt(owner, 0));
+				break;
+			case 2:
+				int rid = session.insertServiceRequest(this._owned.getInt(owner, 0), this._owned.getString(owner, 1).trim(), this._odometer.incrementAndGet(), "Load test");
+				opened(rid);
+				break;
+			case 3:
+				int mid = this._mechanics.getInt(random.nextInt(this._mechanics.rowCount()), 0);
+				java.sql.Date tomorrow = new java.sql.Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+				long opened = Math.min(this._ridCount.get(), RIDS);
+				if (opened == 0) throw new IllegalArgumentException("no service request to close");
+				session.closeServiceRequest(this._rids.get(random.nextInt((int) opened)), mid, tomorrow, "Load test", 1 + random.nextInt(500));
+				break;
+			case 4: session.listCustomersWithBillLessThan(100); break;
+			case 5: session.listCustomersWithMoreCarsThan(20); break;
+			case 6: session.listCarsBeforeYearUnderMiles(1995, 50000); break;
+			case 7: session.listKCarsWithTheMostServices(10); break;
+			default: session.listCustomersByTotalBill(); break;
+		}//end switch
+	}//end execute
+
+	//adds a rid to the ones close picks from, over the oldest once full
+	private void opened(int rid) {
+		this._rids.set((int) (this._ridCount.getAndIncrement() % RIDS), rid);
+	}
+
+	//how an error is counted in the summary
+	private static String kind(Exception e) {
+		if (e instanceof SQLException){
+			String state = ((SQLException) e).getSQLState();
+			if (DUPLICATE_KEY.equals(state)) return "duplicate key (" + state + ")";
+			return "SQLSTATE " + state;
+		}//end if
+		// without the numbers, e.g. "Odometer must be > n", so alike errors add up
+		if (e instanceof IllegalArgumentException) return "rejected: " + String.valueOf(e.getMessage()).replaceAll("[0-9]+", "n");
+		return e.getClass().getSimpleName();
+	}//end kind
+
+	private long errors() {
+		long errors = 0;
+		for (LongAdder e : this._errors) errors += e.sum();
+		return errors;
+	}
+
+	private static boolean done(List<Future<?>> clerks) {
+		for (Future<?> clerk : clerks)
+			if (!clerk.isDone()) return false;
+		return true;
+	}
+
+	/**
+	 * Method to print one interval: response times of all operations.
+	 */
+	private void progress(long elapsed, long[] counts, long errors, long nanos) {
+		long count = 0;
+		for (long c : counts) count += c;
+		this._out.printf("%8.0f s %10.1f ops/s %8d errors   p50 %9.2f  p99 %9.2f  p99.9 %9.2f  max %9.2f ms%n",
+			elapsed / 1e9, count / Math.max(nanos / 1e9, 1e-9), errors,
+			LatencyHistogram.quantile(counts, 0.5) / 1e6, LatencyHistogram.quantile(counts, 0.99) / 1e6,
+			LatencyHistogram.quantile(counts, 0.999) / 1e6, LatencyHistogram.quantile(counts, 1) / 1e6);
+		this._out.flush();
+	}//end progress
+
+	/**
+	 * Method to print the totals of the run per operation.
+	 */
+	private void summary(long elapsed) {
+		double seconds = elapsed / 1e9;
+		this._out.println();
+		this._out.println("response time in ms, counted from when the operation was due; service time from when it started");
+		this._out.printf("%-24s %10s %10s %8s %9s %9s %9s %9s %11s%n", "operation", "count", "ops/s", "errors", "p50", "p99", "p99.9", "max", "service p99");
+		long total = 0;
+		for (int i = 0; i < OPERATIONS.length; ++i){
+			long[] counts = this._response[i].snapshot();
+			long count = this._response[i].count();
+			if (count == 0) continue;
+			total += count;
+			this._out.printf("%-24s %10d %10.1f %8d %9.2f %9.2f %9.2f %9.2f %11.2f%n", OPERATIONS[i], count, count / seconds, this._errors[i].sum(),
+				LatencyHistogram.quantile(counts, 0.5) / 1e6, LatencyHistogram.quantile(counts, 0.99) / 1e6,
+				LatencyHistogram.quantile(counts, 0.999) / 1e6, LatencyHistogram.quantile(counts, 1) / 1e6,
+				LatencyHistogram.quantile(this._service[i].snapshot(), 0.99) / 1e6);
+		}//end for
+		long errors = errors();
+		long[] all = this._all.snapshot();
+		this._out.printf("%-24s %10d %10.1f %8d %9.2f %9.2f %9.2f %9.2f%n", "all", total, total / seconds, errors,
+			LatencyHistogram.quantile(all, 0.5) / 1e6, LatencyHistogram.quantile(all, 0.99) / 1e6,
+			LatencyHistogram.quantile(all, 0.999) / 1e6, LatencyHistogram.quantile(all, 1) / 1e6);
+		this._out.printf("offered %.1f ops/s, achieved %.1f ops/s, error rate %.3f%%%n", this._rate, total / seconds, total == 0 ? 0 : 100.0 * errors / total);
+		for (Map.Entry<String, LongAdder> e : new TreeMap<String, LongAdder>(this._errorKinds).entrySet())
+			this._out.printf("  %8d  %s%n", e.getValue().sum(), e.getKey());
+		this._out.flush();
+	}//end summary
+}//end LoadGenerator
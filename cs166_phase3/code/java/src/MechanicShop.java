@@ -22,6 +22,7 @@ WHERE O.customer_id = id;
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -29,11 +30,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
 //import java.sql.*;
 import java.util.*;
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicReference;
 import java.text.SimpleDateFormat;
 import java.text.*;
 
@@ -41,22 +44,119 @@ import java.text.*;
  * This class defines a simple embedded SQL utility class that is designed to
  * work with PostgreSQL JDBC drivers.
  *
+ * One MechanicShop owns a ConnectionPool; every statement borrows a pooled
+ * connection for its duration, so the service methods (addCustomer(),
+ * insertServiceRequest(), ...) are safe to call from many threads.  Each
+ * terminal talks to its own session (see newSession()), which shares the
+ * pool and the id allocator with the MechanicShop that created it.
  */
 
 public class MechanicShop{
-	//reference to physical database connection
-	private Connection _connection = null;
-	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-	
+	public static final String QUERY_BILL_LESS_THAN = "SELECT date, comment, bill FROM Closed_Request WHERE bill < ?;";
+	public static final String QUERY_CUSTOMERS_WITH_MORE_CARS_THAN = "SELECT fname, lname FROM Customer,( SELECT customer_id,COUNT(customer_id) as car_num FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > ? ) AS O WHERE O.customer_id = id;";
+	public static final String QUERY_CARS_BEFORE_YEAR_UNDER_MILES = "SELECT DISTINCT make,model, year FROM Car AS C, Service_Request AS S WHERE year < ? and S.car_vin = C.vin and S.odometer < ?;";
+	//Car_Service_Count is kept up to date by a trigger on Service_Request, see create.sql
+	public static final String QUERY_K_CARS_WITH_MOST_SERVICES = "SELECT make, model, S.requests AS creq FROM Car_Service_Count AS S, Car AS C WHERE C.vin = S.car_vin ORDER BY S.requests DESC LIMIT ?;";
+	public static final String INSERT_CUSTOMER = "INSERT INTO Customer(id, fname, lname, phone, address) VALUES (?, ?, ?, ?, ?);";
+	public static final String INSERT_MECHANIC = "INSERT INTO Mechanic(id, fname, lname, experience) VALUES (?, ?, ?, ?);";
+	public static final String INSERT_CAR = "INSERT INTO Car(vin, make, model, year) VALUES(?, ?, ?, ?);";
+	public static final String INSERT_OWNS = "INSERT INTO Owns (ownership_id, customer_id, car_vin) VALUES (?, ?, ?);";
+	public static final String INSERT_CLOSED_REQUEST = "INSERT INTO Closed_Request(wid,rid,mid,date,comment, bill) VALUES (?, ?, ?, ?, ?, ?);";
+	//inserts nothing when the car has a higher odometer reading on record
+	public static final String INSERT_SERVICE_REQUEST = "INSERT INTO Service_Request(rid, customer_id, car_vin, date, odometer, complain) SELECT ?, ?, CAST(? AS VARCHAR(16)), ?, ?, CAST(? AS TEXT) WHERE NOT EXISTS (SELECT 1 FROM Service_Request WHERE car_vin = ? AND odometer > ?);";
+	//the same for requests replayed from the IntakeJournal, which may be in the table already
+	public static final String INTAKE_SERVICE_REQUEST = "INSERT INTO Service_Request(rid, customer_id, car_vin, date, odometer, complain) SELECT ?, ?, CAST(? AS VARCHAR(16)), ?, ?, CAST(? AS TEXT) WHERE NOT EXISTS (SELECT 1 FROM Service_Request WHERE car_vin = ? AND odometer > ?) ON CONFLICT DO NOTHING;";
+	//whether the customer and the car of a request exist, checked before it is journaled
+	public static final String QUERY_INTAKE_EXISTS = "SELECT (SELECT COUNT(*) FROM Customer WHERE id = ?)::int, (SELECT COUNT(*) FROM Car WHERE vin = ?)::int;";
+	//customer searches, served by the indexes on Customer when the in-memory CustomerIndex is not loaded
+	public static final String QUERY_CUSTOMERS_BY_LNAME_PREFIX = "SELECT id, fname, lname FROM Customer WHERE lname::text ILIKE ? ORDER BY lname, fname, id LIMIT ?;";
+	public static final String QUERY_CUSTOMERS_BY_NAME_PREFIX = "SELECT id, fname, lname FROM Customer WHERE lname::text ILIKE ? AND fname::text ILIKE ? ORDER BY lname, fname, id LIMIT ?;";
+	public static final String QUERY_CUSTOMERS_BY_PHONE_PREFIX = "SELECT id, fname, lname FROM Customer WHERE phone::text LIKE ? ORDER BY phone, id LIMIT ?;";
+	public static final String QUERY_CUSTOMERS_BY_SIMILAR_LNAME = "SELECT id, fname, lname FROM Customer WHERE lname::text % ? ORDER BY similarity(lname::text, ?) DESC, id LIMIT ?;";
+	public static final String QUERY_LOAD_SERVICE_COUNTS = "SELECT C.vin, C.make, C.model, S.requests FROM Car_Service_Count AS S, Car AS C WHERE C.vin = S.car_vin;";
+	public static final String QUERY_SERVICE_COUNTS = "SELECT car_vin, COUNT(rid) FROM Service_Request GROUP BY car_vin;";
+	//columns printed by listKCarsWithTheMostServices(), sized like the query's
+	static final String[] TOP_CARS_HEADER = { "make", "model", "creq" };
+	static final int[] TOP_CARS_WIDTH = { 32, 32, 19 };
+	static final int[] TOP_CARS_TYPES = { java.sql.Types.VARCHAR, java.sql.Types.VARCHAR, java.sql.Types.BIGINT };
+	//customers listed by the menu when no last name matches exactly
+	static final int MENU_SEARCH_LIMIT = 20;
+	//how often, and how far apart, cancel() sends the cancel request
+	static final int CANCEL_ATTEMPTS = 10;
+	static final long CANCEL_RETRY_MILLIS = 50;
+	//Customer_Bill is kept up to date by a trigger on Closed_Request, see create.sql
+	public static final String QUERY_CUSTOMERS_BY_TOTAL_BILL = "SELECT C.fname , C.lname, B.total AS Total FROM Customer_Bill AS B, Customer AS C WHERE C.id = B.customer_id ORDER BY B.total DESC;";
+	//the same reports a page at a time, see ReportPage; each seeks past the sort key of the
+	//previous page in an index, so every page costs the same.  The first page starts after
+	//a key below every row, e.g. (-1, -1) for bills.
+	public static final String PAGE_BILL_LESS_THAN = "SELECT wid, date, comment, bill FROM Closed_Request WHERE bill < ? AND (bill, wid) > (CAST(? AS INTEGER), CAST(? AS INTEGER)) ORDER BY bill, wid LIMIT ?;";
+	public static final String PAGE_CARS_BEFORE_YEAR_UNDER_MILES = "SELECT DISTINCT make, model, year FROM Car AS C WHERE year < ? AND EXISTS (SELECT 1 FROM Service_Request AS S WHERE S.car_vin = C.vin AND S.odometer < ?) AND (make, model, year) > (?, ?, CAST(? AS INTEGER)) ORDER BY make, model, year LIMIT ?;";
+	public static final String PAGE_CUSTOMERS_BY_TOTAL_BILL = "SELECT B.customer_id AS id, C.fname, C.lname, B.total AS Total FROM Customer_Bill AS B, Customer AS C WHERE C.id = B.customer_id AND (B.total, B.customer_id) < (CAST(? AS BIGINT), CAST(? AS INTEGER)) ORDER BY B.total DESC, B.customer_id DESC LIMIT ?;";
+	//reports 6, 9 and 10 over the requests dated in [from, to).  Every table is bounded by
+	//date, so once the requests are partitioned by month (see PartitionMigration) only the
+	//partitions of the period are scanned; the totals are summed from the requests since
+	//Car_Service_Count and Customer_Bill have no dates.
+	public static final String QUERY_BILL_LESS_THAN_BETWEEN = "SELECT date, comment, bill FROM Closed_Request WHERE bill < ? AND date >= ? AND date < ?;";
+	public static final String QUERY_K_CARS_WITH_MOST_SERVICES_BETWEEN = "SELECT make, model, S.requests AS creq FROM (SELECT car_vin, COUNT(*) AS requests FROM Service_Request WHERE date >= ? AND date < ? GROUP BY car_vin ORDER BY requests DESC LIMIT ?) AS S, Car AS C WHERE C.vin = S.car_vin ORDER BY S.requests DESC;";
+	public static final String QUERY_CUSTOMERS_BY_TOTAL_BILL_BETWEEN = "SELECT C.fname , C.lname, B.total AS Total FROM (SELECT SR.customer_id, SUM(CR.bill) AS total FROM Closed_Request AS CR, Service_Request AS SR WHERE SR.rid = CR.rid AND CR.date >= ? AND CR.date < ? AND SR.date < ? GROUP BY SR.customer_id) AS B, Customer AS C WHERE C.id = B.customer_id ORDER BY B.total DESC;";
+
+	//pool of physical database connections, shared by all sessions
+	private ConnectionPool _pool = null;
+	//primary keys for new rows, see IdAllocator
+	private IdAllocator _ids = null;
+	//terminal of this session
+	private BufferedReader _in = null;
+	private PrintStream _out = null;
+	//true for sessions created by newSession(), which do not own the pool
+	private boolean _session = false;
+	//true if reports are printed as JSON instead of tables
+	private boolean _json = false;
+	//rows fetched per round trip when printing results
+	private int _fetchSize = Integer.getInteger("mechanicshop.fetchSize", 1000);
+	//service count of every car, shared by all sessions, see loadServiceCounts()
+	private ServiceCounter _serviceCounts = new ServiceCounter();
+	//last odometer reading of recently serviced cars, shared by all sessions
+	private OdometerCache _odometers = new OdometerCache(OdometerCache.DEFAULT_CAPACITY);
+	//customers by name and phone, shared by all sessions, see loadCustomerIndex()
+	private CustomerIndex _customers = new CustomerIndex();
+	//VINs of all cars, shared by all sessions, null until loadVinFilter()
+	private AtomicReference<VinFilter> _vins = new AtomicReference<VinFilter>();
+	//statements over the slow query threshold, shared by all sessions, null when off
+	private SlowQueryLog _slowQueries = null;
+	//materialized reports, shared by all sessions, null when off
+	private ReportSnapshots _snapshots = null;
+	//write-behind intake of service requests, shared by all sessions, null when off
+	private IntakeJournal _intake = null;
+	//report this session is running, see cancel()
+	private final AtomicReference<Statement> _running = new AtomicReference<Statement>();
+	private volatile boolean _cancelled = false;
+
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
+		this(dbname, dbport, user, passwd, 1);
+	}
+
+	public MechanicShop(String dbname, String dbport, String user, String passwd, int poolSize) throws SQLException {
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			// prepareThreshold=1 makes every statement a server side prepared statement
+			// on first use, stringtype=unspecified lets the server type string parameters
+			// (CHAR columns, dates) instead of forcing them to varchar,
+			// reWriteBatchedInserts sends a batch of INSERTs as multi-row INSERTs
+			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname + "?prepareThreshold=1&stringtype=unspecified&reWriteBatchedInserts=true";
 			System.out.println ("Connection URL: " + url + "\n");
-			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+
+			// obtain a physical connection, so a bad URL fails here and not on first use
+			this._pool = new ConnectionPool(url, user, passwd, poolSize);
+			this._pool.release(this._pool.acquire());
+			String metricsFile = System.getProperty("mechanicshop.metricsFile");
+			if (metricsFile != null) this._pool.metrics().writePeriodically(new java.io.File(metricsFile));
+			this._slowQueries = SlowQueryLog.fromProperties(this._pool);
+			this._snapshots = ReportSnapshots.fromProperties(this._pool);
+	        this._ids = new IdAllocator(this);
+	        this._intake = IntakeJournal.fromProperties(this);
+	        this._in = new BufferedReader(new InputStreamReader(System.in));
+	        this._out = System.out;
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -64,179 +164,1209 @@ public class MechanicShop{
 	        System.exit(-1);
 		}
 	}
-	
+
+	private MechanicShop(MechanicShop parent, BufferedReader in, PrintStream out) {
+		this._pool = parent._pool;
+		this._ids = parent._ids;
+		this._in = in;
+		this._out = out;
+		this._session = true;
+		this._fetchSize = parent._fetchSize;
+		this._serviceCounts = parent._serviceCounts;
+		this._odometers = parent._odometers;
+		this._customers = parent._customers;
+		this._vins = parent._vins;
+		this._slowQueries = parent._slowQueries;
+		this._intake = parent._intake;
+		this._snapshots = parent._snapshots;
+	}
+
 	/**
-	 * Method to execute an update SQL statement.  Update SQL instructions
-	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
-	 * 
-	 * @param sql the input SQL string
-	 * @throws java.sql.SQLException when update failed
-	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	 * Method to open a session for another terminal.  The session shares
+	 * the connection pool and id allocator of this MechanicShop and reads
+	 * its input from in and writes its output to out.
+	 *
+	 * @param in the terminal input
+	 * @param out the terminal output
+	 * @return the new session
+	 */
+	public MechanicShop newSession(BufferedReader in, PrintStream out) {
+		return new MechanicShop(this, in, out);
+	}//end newSession
+
+	/**
+	 * Method to open a session without a terminal whose reports are
+	 * printed to out as JSON arrays (see JsonResultPrinter).
+	 *
+	 * @param out where the reports are written
+	 * @return the new session
+	 */
+	public MechanicShop newJsonSession(PrintStream out) {
+		MechanicShop session = new MechanicShop(this, null, out);
+		session._json = true;
+		return session;
+	}//end newJsonSession
+
+	//printer of the reports of this session
+	private ResultPrinter printer() {
+		return this._json ? new JsonResultPrinter(this._out) : new ResultPrinter(this._out);
+	}
+
+	ConnectionPool pool() {
+		return this._pool;
+	}
 
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	IdAllocator ids() {
+		return this._ids;
+	}
 
-		// close the instruction
-	    stmt.close ();
+	/**
+	 * Method to execute an update SQL statement.  Update SQL instructions
+	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.  The statement is
+	 * prepared once per connection and reused from the statement cache
+	 * afterwards, with params bound to its ? placeholders.
+	 *
+	 * @param sql the input SQL string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows changed
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public int executeUpdate (String sql, Object... params) throws SQLException {
+		PooledConnection conn = this._pool.acquire ();
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		try{
+			PreparedStatement stmt = prepare (conn, sql, params);
+			rowCount = stmt.executeUpdate ();
+			return rowCount;
+		}catch (SQLException e){
+			failed (conn, sql, e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+			record (sql, params, start, rowCount, 0);
+		}//end try
 	}//end executeUpdate
 
+	/**
+	 * Method to set how many rows executeQueryAndPrintResult fetches per
+	 * round trip.  Defaults to the mechanicshop.fetchSize system property,
+	 * or 1000.
+	 *
+	 * @param fetchSize rows per fetch, 0 to fetch the whole result at once
+	 */
+	public void setFetchSize(int fetchSize) {
+		this._fetchSize = fetchSize;
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
-	 * 
-	 * @param query the input query string
+	 * the terminal of this session.  The result is streamed through a
+	 * server side cursor, fetchSize rows at a time, so memory use does not
+	 * grow with the size of the result.
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		PooledConnection conn = this._pool.acquire ();
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		ResultPrinter printer = printer ();
+		try{
+			// the driver only uses a cursor inside a transaction; the pool
+			// ends it and restores autocommit on release
+			conn.connection ().setAutoCommit (false);
+			PreparedStatement stmt = prepare (conn, query, params);
+			stmt.setFetchSize (this._fetchSize);
+			this._running.set (stmt);
+			if (this._cancelled)
+				throw new SQLException ("canceling statement due to user request", "57014");
+			ResultSet rs = stmt.executeQuery ();
+			// a cancel() that came before the query reached the server was lost
+			if (this._cancelled){
+				rs.close ();
+				throw new SQLException ("canceling statement due to user request", "57014");
+			}//end if
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//iterates through the result set and output them to the terminal.
+			rowCount = printer.print (rs);
+			rs.close ();
+			return rowCount;
+		}catch (java.io.IOException e){
+			throw new SQLException ("Unable to write the result: " + e.getMessage (), e);
+		}catch (SQLException e){
+			failed (conn, query, e);
+			throw e;
+		}finally{
+			this._running.set (null);
+			this._pool.release (conn);
+			record (query, params, start, rowCount, printer.bytes ());
+		}//end try
 	}
-	
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the results as
-	 * a list of records. Each record in turn is a list of attribute values
-	 * 
-	 * @param query the input query string
+	 * a list of records. Each record in turn is a list of attribute values.
+	 * The records are views of a ColumnarResult (see
+	 * executeQueryAndReturnColumns) and cannot be modified.
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+		return executeQueryAndReturnColumns (query, params).rows ();
 	}//end executeQueryAndReturnResult
-	
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
-	 * 
-	 * @param query the input query string
-	 * @return the number of rows returned
+	 * method issues the query to the DBMS and returns the results column
+	 * by column, with integers unboxed and repeated strings stored once.
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ColumnarResult executeQueryAndReturnColumns (String query, Object... params) throws SQLException {
+		PooledConnection conn = this._pool.acquire ();
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		long bytes = 0;
+		try{
+			PreparedStatement stmt = prepare (conn, query, params);
+			ResultSet rs = stmt.executeQuery ();
+			ColumnarResult result = new ColumnarResult (rs);
+			rs.close ();
+			rowCount = result.rowCount ();
+			bytes = result.bytes ();
+			return result;
+		}catch (SQLException e){
+			failed (conn, query, e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+			record (query, params, start, rowCount, bytes);
+		}//end try
+	}//end executeQueryAndReturnColumns
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and tells whether it returned
+	 * any row, e.g. to check that a key exists.
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return 1 if the query returned a row, 0 otherwise
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQuery (String query, Object... params) throws SQLException {
+		PooledConnection conn = this._pool.acquire ();
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		try{
+			PreparedStatement stmt = prepare (conn, query, params);
+			ResultSet rs = stmt.executeQuery ();
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			rowCount = 0;
+			if(rs.next()){
+				rowCount++;
+			}//end if
+			rs.close ();
+			return rowCount;
+		}catch (SQLException e){
+			failed (conn, query, e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+			record (query, params, start, rowCount, 0);
+		}//end try
+	}
 
-		int rowCount = 0;
+	/**
+	 * Method to record one execution of a statement in the metrics of the
+	 * pool (see Metrics) and, if it was slow, in the slow query log.
+	 *
+	 * @param sql the statement
+	 * @param params the values bound to its placeholders
+	 * @param start System.nanoTime() when it started
+	 * @param rowCount rows fetched or written, -1 if it failed
+	 * @param bytes characters of the values fetched
+	 */
+	private void record (String sql, Object[] params, long start, int rowCount, long bytes) {
+		long nanos = System.nanoTime () - start;
+		this._pool.metrics ().statement (sql).record (nanos, rowCount, bytes, rowCount < 0);
+		if (this._slowQueries != null) this._slowQueries.check (sql, params, nanos, rowCount);
+		if (this._snapshots != null && rowCount > 0 && sql.startsWith ("INSERT")) this._snapshots.wrote (rowCount);
+	}
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	/**
+	 * @return the statement and connection wait statistics of every session
+	 */
+	public Metrics metrics () {
+		return this._pool.metrics ();
 	}
-	
+
+	/**
+	 * Method to cancel the report this session is running, from another
+	 * thread.  The server stops the query and executeQueryAndPrintResult
+	 * throws an SQLException of SQLSTATE 57014; reports the session starts
+	 * afterwards fail the same way.  The driver ignores a cancel that
+	 * arrives before the query reached the server, so it is sent again
+	 * for a while as long as the statement still runs.
+	 */
+	public void cancel () throws SQLException {
+		this._cancelled = true;
+		Statement stmt = this._running.get ();
+		for (int attempt = 0; stmt != null && attempt < CANCEL_ATTEMPTS; ++attempt){
+			stmt.cancel ();
+			try{
+				Thread.sleep (CANCEL_RETRY_MILLIS);
+			}catch (InterruptedException e){
+				Thread.currentThread ().interrupt ();
+				return;
+			}//end try
+			if (this._running.get () != stmt) return;
+		}//end for
+	}
+
+	/**
+	 * Method to start a transaction grouping several writes, which are
+	 * sent in batches (see UnitOfWork).  The caller must close() it.
+	 *
+	 * @return the unit of work, holding a pooled connection until closed
+	 * @throws java.sql.SQLException when no connection could be obtained
+	 */
+	public UnitOfWork beginWork () throws SQLException {
+		return new UnitOfWork (this._pool);
+	}
+
+	/**
+	 * Method to fetch the cached statement of a query and bind its
+	 * parameters.  Strings, numbers and java.sql dates are bound with
+	 * their natural JDBC type, null as an untyped NULL.
+	 */
+	private static PreparedStatement prepare (PooledConnection conn, String sql, Object[] params) throws SQLException {
+		PreparedStatement stmt = conn.statements ().prepare (sql);
+		bind (stmt, params);
+		return stmt;
+	}
+
+	static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			if (params[i] == null)
+				stmt.setNull (i + 1, java.sql.Types.NULL);
+			else
+				stmt.setObject (i + 1, params[i]);
+		}//end for
+	}
+
+	/**
+	 * Method to drop a failed statement from the cache of its connection
+	 * and let the pool know if the connection itself broke.
+	 */
+	private static void failed (PooledConnection conn, String sql, SQLException e) {
+		conn.statements ().evict (sql);
+		conn.failed (e);
+	}
+
 	/**
 	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
-	 * 
+	 * method issues the query to the DBMS and returns the current
+	 * value of sequence used for autogenerated keys.  currval is per
+	 * database session, so with a pool this is only meaningful right
+	 * after a nextval on the same connection.
+	 *
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	
+
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
+		ColumnarResult value = executeQueryAndReturnColumns ("Select currval(?)", sequence);
+		if (value.rowCount() > 0) return value.getInt(0, 0);
 		return -1;
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to advance a sequence and fetch its new value.  Sequences used
+	 * by IdAllocator are created with INCREMENT BY n, so the returned value
+	 * is the first id of a freshly reserved block of n ids.
+	 *
+	 * @param sequence name of the DB sequence
+	 * @return next value of a sequence
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int getNextSeqVal(String sequence) throws SQLException {
+		ColumnarResult value = executeQueryAndReturnColumns ("Select nextval(?)", sequence);
+		return value.getInt(0, 0);
+	}
+
+	/**
+	 * Method to fetch the step of a sequence, i.e. how many ids a single
+	 * nextval reserves.
+	 *
+	 * @param sequence name of the DB sequence
+	 * @return increment of a sequence
+	 * @throws java.sql.SQLException when the sequence does not exist
+	 */
+	public int getSeqIncrement(String sequence) throws SQLException {
+		ColumnarResult value = executeQueryAndReturnColumns ("Select increment_by FROM pg_sequences WHERE sequencename = ?", sequence);
+		int increment = value.rowCount() == 0 ? -1 : value.getInt(0, 0);
+		if (increment <= 0)
+			throw new SQLException("Unknown sequence " + sequence + ", run create.sql first");
+		return increment;
+	}
+
+	/**
+	 * Method to close the physical connections if they are open.  Sessions
+	 * share the pool of their parent and leave it open.
 	 */
 	public void cleanup(){
+		if (this._intake != null && !this._session){
+			this._intake.close ();
+		}//end if
+		if (this._snapshots != null && !this._session){
+			this._snapshots.close ();
+		}//end if
+		if (this._pool != null && !this._session){
+			this._pool.close ();
+		}//end if
+	}//end cleanup
+
+	/*
+	 * Service methods.  These take already validated input, run the
+	 * statements of one menu operation and may be called concurrently from
+	 * any number of sessions.  The interactive menu operations at the end
+	 * of this file prompt for the input and call them.
+	 */
+
+	/**
+	 * Method to add a customer.
+	 *
+	 * @return the id of the new customer
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public int addCustomer(String fname, String lname, String phone, String address) throws SQLException {
+		int id = this._ids.nextId(IdAllocator.CUSTOMER);
+		executeUpdate(INSERT_CUSTOMER, id, fname, lname, phone, address);
+		this._customers.add(id, fname, lname, phone);
+		return id;
+	}//end addCustomer
+
+	/**
+	 * Method to add many customers in one transaction, as one batch.
+	 *
+	 * @param customers the arguments of addCustomer() for every customer
+	 * @return the ids of the new customers, in order
+	 * @throws java.sql.SQLException when an insert failed; no customer is
+	 *         added then
+	 */
+	public int[] addCustomers(List<Object[]> customers) throws SQLException {
+		int[] ids = new int[customers.size()];
+		// before beginWork(): a new block of ids takes a connection of its own
+		for (int i = 0; i < ids.length; ++i)
+			ids[i] = this._ids.nextId(IdAllocator.CUSTOMER);
+		UnitOfWork work = beginWork();
+		try{
+			for (int i = 0; i < ids.length; ++i){
+				Object[] c = customers.get(i);
+				work.add(INSERT_CUSTOMER, ids[i], c[0], c[1], c[2], c[3]);
+			}//end for
+			work.commit();
+		}finally{
+			work.close();
+		}//end try
+		for (int i = 0; i < ids.length; ++i){
+			Object[] c = customers.get(i);
+			this._customers.add(ids[i], (String) c[0], (String) c[1], (String) c[2]);
+		}//end for
+		return ids;
+	}//end addCustomers
+
+	/**
+	 * Method to load every customer into the in-memory customer index.
+	 * From then on the customer searches do not query the database and
+	 * addCustomer() keeps the index current.
+	 */
+	public void loadCustomerIndex() throws SQLException {
+		this._customers.load(executeQueryAndReturnColumns("SELECT id, fname, lname, phone FROM Customer;"));
+	}//end loadCustomerIndex
+
+	/**
+	 * Method to find customers by the start of their name, for type-ahead.
+	 * The prefix is matched against "Lname Fname" ignoring case, so "smi"
+	 * finds every Smith and "smith j" the Smiths whose first name starts
+	 * with J.
+	 *
+	 * @return id, fname and lname of at most limit customers
+	 */
+	public List<List<String>> searchCustomersByName(String prefix, int limit) throws SQLException {
+		if (this._customers.isLoaded())
+			return this._customers.searchName(prefix, limit);
+		int space = prefix.indexOf(' ');
+		if (space < 0)
+			return trim(executeQueryAndReturnResult(QUERY_CUSTOMERS_BY_LNAME_PREFIX, likePrefix(prefix), limit));
+		return trim(executeQueryAndReturnResult(QUERY_CUSTOMERS_BY_NAME_PREFIX, likePrefix(prefix.substring(0, space)), likePrefix(prefix.substring(space + 1)), limit));
+	}//end searchCustomersByName
+
+	/**
+	 * Method to find customers by the first digits of their phone number.
+	 * Characters other than digits are ignored.
+	 *
+	 * @return id, fname and lname of at most limit customers
+	 */
+	public List<List<String>> searchCustomersByPhone(String digits, int limit) throws SQLException {
+		if (this._customers.isLoaded())
+			return this._customers.searchPhone(digits, limit);
+		return trim(executeQueryAndReturnResult(QUERY_CUSTOMERS_BY_PHONE_PREFIX, phonePattern(digits), limit));
+	}//end searchCustomersByPhone
+
+	/**
+	 * Method to find customers whose last name is similar to the given
+	 * one, for misspelled names.  Always runs on the database, through the
+	 * trigram index on lname.
+	 *
+	 * @return id, fname and lname of at most limit customers, most similar first
+	 */
+	public List<List<String>> searchCustomersFuzzy(String lname, int limit) throws SQLException {
+		return trim(executeQueryAndReturnResult(QUERY_CUSTOMERS_BY_SIMILAR_LNAME, lname, lname, limit));
+	}//end searchCustomersFuzzy
+
+	/**
+	 * Method to find the customers with exactly the given name.
+	 *
+	 * @param fname the first name, null to match any first name
+	 * @return id, fname and lname of every matching customer
+	 */
+	public List<List<String>> findCustomers(String lname, String fname) throws SQLException {
+		List<List<String>> found = new ArrayList<List<String>>();
+		if (!this._customers.isLoaded()){
+			if (fname == null)
+				return trim(executeQueryAndReturnResult("SELECT id, fname, lname FROM Customer WHERE lname = ?;", lname));
+			return trim(executeQueryAndReturnResult("SELECT id, fname, lname FROM Customer WHERE lname = ? AND fname = ?;", lname, fname));
+		}//end if
+		String prefix = lname.trim() + " " + (fname == null ? "" : fname.trim());
+		for (List<String> row : this._customers.searchName(prefix, Integer.MAX_VALUE)){
+			if (row.get(2).equals(lname.trim()) && (fname == null || row.get(1).equals(fname.trim())))
+				found.add(row);
+		}//end for
+		return found;
+	}//end findCustomers
+
+	//CHAR columns come back blank padded
+	private static List<List<String>> trim(List<List<String>> rows) {
+		List<List<String>> trimmed = new ArrayList<List<String>>(rows.size());
+		for (List<String> row : rows){
+			List<String> values = new ArrayList<String>(row.size());
+			for (String value : row)
+				values.add(value.trim());
+			trimmed.add(values);
+		}//end for
+		return trimmed;
+	}
+
+	//LIKE pattern matching strings that start with prefix
+	private static String likePrefix(String prefix) {
+		return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+	}
+
+	/**
+	 * Method to turn the first digits of a phone number into a LIKE
+	 * pattern in the stored (###)###-#### format.
+	 */
+	static String phonePattern(String digits) {
+		String format = "(###)###-####";
+		StringBuilder pattern = new StringBuilder();
+		int next = 0;
+		String only = digits.replaceAll("[^0-9]", "");
+		for (int i = 0; i < format.length() && next < only.length(); ++i)
+			pattern.append(format.charAt(i) == '#' ? only.charAt(next++) : format.charAt(i));
+		return pattern.append('%').toString();
+	}//end phonePattern
+
+	/**
+	 * Method to add a mechanic.
+	 *
+	 * @return the id of the new mechanic
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public int addMechanic(String fname, String lname, int experience) throws SQLException {
+		int id = this._ids.nextId(IdAllocator.MECHANIC);
+		executeUpdate(INSERT_MECHANIC, id, fname, lname, experience);
+		return id;
+	}//end addMechanic
+
+	/**
+	 * Method to add many mechanics in one transaction, as one batch.
+	 *
+	 * @param mechanics the arguments of addMechanic() for every mechanic
+	 * @return the ids of the new mechanics, in order
+	 * @throws java.sql.SQLException when an insert failed; no mechanic is
+	 *         added then
+	 */
+	public int[] addMechanics(List<Object[]> mechanics) throws SQLException {
+		int[] ids = new int[mechanics.size()];
+		// before beginWork(): a new block of ids takes a connection of its own
+		for (int i = 0; i < ids.length; ++i)
+			ids[i] = this._ids.nextId(IdAllocator.MECHANIC);
+		UnitOfWork work = beginWork();
+		try{
+			for (int i = 0; i < ids.length; ++i){
+				Object[] m = mechanics.get(i);
+				work.add(INSERT_MECHANIC, ids[i], m[0], m[1], m[2]);
+			}//end for
+			work.commit();
+		}finally{
+			work.close();
+		}//end try
+		return ids;
+	}//end addMechanics
+
+	/**
+	 * Method to add a car and record that a customer owns it.
+	 *
+	 * @return the ownership id of the new Owns row
+	 * @throws java.sql.SQLException when one of the inserts failed; neither
+	 *         row is written then
+	 */
+	public int addCar(String vin, String make, String model, int year, int customerId) throws SQLException {
+		int ownershipId = this._ids.nextId(IdAllocator.OWNS);
+		UnitOfWork work = beginWork();
+		try{
+			work.add(INSERT_CAR, vin, make, model, year);
+			work.add(INSERT_OWNS, ownershipId, customerId, vin);
+			work.commit();
+		}finally{
+			work.close();
+		}//end try
+		VinFilter vins = this._vins.get();
+		if (vins != null){
+			vins.add(vin);
+			reloadVinFilterIfFull(vins);
+		}//end if
+		return ownershipId;
+	}//end addCar
+
+	/**
+	 * Method to add many cars and their owners in one transaction.  All
+	 * cars are sent as one batch, then all Owns rows.
+	 *
+	 * @param cars the arguments of addCar() for every car
+	 * @return the ownership ids of the new Owns rows, in order
+	 * @throws java.sql.SQLException when an insert failed; no car is added
+	 *         then
+	 */
+	public int[] addCars(List<Object[]> cars) throws SQLException {
+		int[] ids = new int[cars.size()];
+		// before beginWork(): a new block of ids takes a connection of its own
+		for (int i = 0; i < ids.length; ++i)
+			ids[i] = this._ids.nextId(IdAllocator.OWNS);
+		UnitOfWork work = beginWork();
+		try{
+			for (Object[] c : cars)
+				work.add(INSERT_CAR, c[0], c[1], c[2], c[3]);
+			for (int i = 0; i < ids.length; ++i)
+				work.add(INSERT_OWNS, ids[i], cars.get(i)[4], cars.get(i)[0]);
+			work.commit();
+		}finally{
+			work.close();
+		}//end try
+		VinFilter vins = this._vins.get();
+		if (vins != null){
+			for (Object[] c : cars) vins.add((String) c[0]);
+			reloadVinFilterIfFull(vins);
+		}//end if
+		return ids;
+	}//end addCars
+
+	/**
+	 * Method to check whether a car with the given VIN exists.  Once
+	 * loadVinFilter() ran, VINs the filter has never seen are answered
+	 * without a query.
+	 */
+	public boolean carExists(String vin) throws SQLException {
+		VinFilter vins = this._vins.get();
+		if (vins != null && !vins.mightContain(vin)) return false;
+		return executeQuery("SELECT C.vin FROM Car C WHERE C.vin = ?;", vin) != 0;
+	}//end carExists
+
+	/**
+	 * Method to (re)build the VIN filter used by carExists() from every
+	 * car in the database.  The VINs are streamed through a cursor, so
+	 * only the filter itself is kept in memory.  addCar() and addCars()
+	 * call it again once the filter is full; call it after the data was
+	 * reloaded.  Cars added while it runs go to both filters.
+	 */
+	public void loadVinFilter() throws SQLException {
+		long cars = executeQueryAndReturnColumns("SELECT COUNT(*) FROM Car;").getLong(0, 0);
+		VinFilter vins = new VinFilter(2 * cars);
+		VinFilter old = this._vins.get();
+		if (old != null) old.forward(vins);
+		String query = "SELECT vin FROM Car;";
+		PooledConnection conn = this._pool.acquire ();
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		long bytes = 0;
+		try{
+			conn.connection ().setAutoCommit (false);
+			PreparedStatement stmt = prepare (conn, query, new Object[0]);
+			stmt.setFetchSize (this._fetchSize);
+			ResultSet rs = stmt.executeQuery ();
+			rowCount = 0;
+			while (rs.next ()){
+				String vin = rs.getString (1);
+				bytes += vin.length ();
+				vins.add (vin);
+				++rowCount;
+			}//end while
+			rs.close ();
+		}catch (SQLException e){
+			failed (conn, query, e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+			record (query, new Object[0], start, rowCount, bytes);
+		}//end try
+		this._vins.set(vins);
+	}//end loadVinFilter
+
+	/**
+	 * Method to reload the VIN filter once more cars were added than it is
+	 * sized for, by the first session to notice.  The cars are already
+	 * committed, so a failed reload is only reported and the old filter,
+	 * still correct but less selective, stays in use.
+	 */
+	private void reloadVinFilterIfFull(VinFilter vins) {
+		if (!vins.isFull() || !vins.claimReload()) return;
+		try{
+			loadVinFilter();
+		}catch (SQLException e){
+			vins.release();
+			System.err.println ("VIN filter not reloaded: " + e.getMessage ());
+		}//end try
+	}//end reloadVinFilterIfFull
+
+	/**
+	 * Method to fetch the highest odometer reading recorded for a car.
+	 *
+	 * @return the last reading, 0 if the car was never serviced
+	 */
+	public int lastOdometer(String vin) throws SQLException {
+		Integer cached = this._odometers.get(vin);
+		if (cached != null) return cached;
+		// answered from the (car_vin, odometer) index
+		ColumnarResult prev_odometer = executeQueryAndReturnColumns("SELECT COALESCE(MAX(odometer), 0) FROM Service_Request WHERE car_vin = ?;", vin);
+		int old_odo = prev_odometer.getInt(0, 0);
+		this._odometers.update(vin, old_odo);
+		return old_odo;
+	}//end lastOdometer
+
+	/**
+	 * Method to open a service request dated today.
+	 *
+	 * @return the rid of the new request
+	 * @throws java.lang.IllegalArgumentException when the odometer reading
+	 *         is below the last one recorded for the car
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public int insertServiceRequest(int customerId, String vin, int odometer, String complaint) throws SQLException {
+		// a cached reading can only be too low, so it is enough to reject
+		Integer cached = this._odometers.get(vin);
+		if (cached != null && odometer < cached)
+			throw new IllegalArgumentException("Odometer must be > " + cached);
+		int rid = this._ids.nextId(IdAllocator.SERVICE_REQUEST);
+		java.sql.Date date = new java.sql.Date(System.currentTimeMillis());
+		if (executeUpdate(INSERT_SERVICE_REQUEST, rid, customerId, vin, date, odometer, complaint, vin, odometer) == 0){
+			// a higher reading is on record, so the cached one was stale
+			this._odometers.invalidate(vin);
+			throw new IllegalArgumentException("Odometer must be > " + lastOdometer(vin));
+		}//end if
+		serviced(vin, odometer);
+		return rid;
+	}//end insertServiceRequest
+
+	/**
+	 * Method to open a service request through the intake journal when one
+	 * is configured (mechanicshop.intakeJournal, see IntakeJournal): the
+	 * request is checked as the insert would check it (the customer and
+	 * the car exist, the reading is positive and not below the last one of
+	 * the car), written to the local journal and acknowledged, and
+	 * inserted into Service_Request in the background.  Without a journal
+	 * this is insertServiceRequest().
+	 *
+	 * @return the rid the request will have
+	 * @throws java.lang.IllegalArgumentException when the customer or the
+	 *         car does not exist or the odometer reading is not positive or
+	 *         below the last one known for the car
+	 */
+	public int intakeServiceRequest(int customerId, String vin, int odometer, String complaint) throws SQLException {
+		if (this._intake == null)
+			return insertServiceRequest(customerId, vin, odometer, complaint);
+		// the flusher could only log what the database turns down, so nothing may be left to it
+		if (complaint != null && complaint.indexOf('\0') >= 0)
+			throw new IllegalArgumentException("the complaint must not contain a NUL character");
+		ColumnarResult exists = executeQueryAndReturnColumns(QUERY_INTAKE_EXISTS, customerId, vin);
+		if (exists.getInt(0, 0) == 0)
+			throw new IllegalArgumentException("invalid customer id");
+		if (exists.getInt(0, 1) == 0)
+			throw new IllegalArgumentException("invalid vin");
+		// the _PINTEGER domain of Service_Request.odometer
+		if (odometer <= 0)
+			throw new IllegalArgumentException("Odometer must be > 0");
+		int last = lastOdometer(vin);
+		if (odometer < last)
+			throw new IllegalArgumentException("Odometer must be > " + last);
+		int rid = this._ids.nextId(IdAllocator.SERVICE_REQUEST);
+		try{
+			this._intake.append(rid, customerId, vin, new java.sql.Date(System.currentTimeMillis()), odometer, complaint);
+		}catch (java.io.IOException e){
+			throw new SQLException("Unable to journal the request: " + e.getMessage(), e);
+		}//end try
+		// later requests of the car are checked against this one
+		this._odometers.update(vin, odometer);
+		return rid;
+	}//end intakeServiceRequest
+
+	/**
+	 * Method to insert service requests whose rid and date are already
+	 * set, in one transaction, as one batch.  Requests whose rid is in the
+	 * table already, or whose reading is below one on record, insert
+	 * nothing.  Used by IntakeJournal.
+	 *
+	 * @param requests rid, customer id, vin, date, odometer and complaint
+	 *        of every request
+	 * @return the number of rows each request inserted, 0 or 1
+	 */
+	int[] writeServiceRequests(List<Object[]> requests) throws SQLException {
+		int[] rowCounts = new int[requests.size()];
+		UnitOfWork work = beginWork();
 		try{
-			if (this._connection != null){
-				this._connection.close ();
+			for (Object[] r : requests)
+				work.add(INTAKE_SERVICE_REQUEST, r[0], r[1], r[2], r[3], r[4], r[5], r[2], r[4]);
+			work.flush();
+			for (int i = 0; i < rowCounts.length; ++i)
+				rowCounts[i] = work.rowCounts().get(i);
+			work.commit();
+		}finally{
+			work.close();
+		}//end try
+		if (this._snapshots != null) this._snapshots.wrote(rowCounts.length);
+		for (int i = 0; i < rowCounts.length; ++i){
+			String vin = (String) requests.get(i)[2];
+			if (rowCounts[i] == 0)
+				this._odometers.invalidate(vin);
+			else
+				serviced(vin, (Integer) requests.get(i)[4]);
+		}//end for
+		return rowCounts;
+	}//end writeServiceRequests
+
+	/**
+	 * Method to open many service requests, dated today, in one
+	 * transaction, as one batch.  A request whose odometer reading is
+	 * below the last one recorded for its car, including readings of
+	 * earlier requests of the batch, is skipped.
+	 *
+	 * @param requests the arguments of insertServiceRequest() for every request
+	 * @return the rids of the new requests, in order, -1 for skipped ones
+	 * @throws java.sql.SQLException when an insert failed; no request is
+	 *         added then
+	 */
+	public int[] insertServiceRequests(List<Object[]> requests) throws SQLException {
+		int[] rids = new int[requests.size()];
+		java.sql.Date date = new java.sql.Date(System.currentTimeMillis());
+		List<Integer> sent = new ArrayList<Integer>();
+		// before beginWork(): a new block of ids takes a connection of its own
+		for (int i = 0; i < rids.length; ++i){
+			Object[] r = requests.get(i);
+			Integer cached = this._odometers.get((String) r[1]);
+			if (cached != null && (Integer) r[2] < cached){
+				rids[i] = -1;
+				continue;
 			}//end if
+			rids[i] = this._ids.nextId(IdAllocator.SERVICE_REQUEST);
+			sent.add(i);
+		}//end for
+		UnitOfWork work = beginWork();
+		try{
+			for (int i : sent){
+				Object[] r = requests.get(i);
+				work.add(INSERT_SERVICE_REQUEST, rids[i], r[0], r[1], date, r[2], r[3], r[1], r[2]);
+			}//end for
+			work.flush();
+			for (int j = 0; j < sent.size(); ++j)
+				if (work.rowCounts().get(j) == 0) rids[sent.get(j)] = -1;
+			work.commit();
+		}finally{
+			work.close();
+		}//end try
+		if (this._snapshots != null) this._snapshots.wrote(sent.size());
+		for (int i = 0; i < rids.length; ++i){
+			String vin = (String) requests.get(i)[1];
+			if (rids[i] < 0)
+				this._odometers.invalidate(vin);
+			else
+				serviced(vin, (Integer) requests.get(i)[2]);
+		}//end for
+		return rids;
+	}//end insertServiceRequests
+
+	/**
+	 * Method to update the odometer cache and the service counts after a
+	 * service request of a car was committed.
+	 */
+	private void serviced(String vin, int odometer) throws SQLException {
+		this._odometers.update(vin, odometer);
+		if (!this._serviceCounts.increment(vin)){
+			// first service of this car since the counts were loaded
+			ColumnarResult car = executeQueryAndReturnColumns("SELECT make, model FROM Car WHERE vin = ?;", vin);
+			if (car.rowCount() > 0)
+				this._serviceCounts.add(vin, car.getString(0, 0), car.getString(0, 1), 1);
+		}//end if
+	}//end serviced
+
+	/**
+	 * Method to fetch the date a service request was opened.
+	 *
+	 * @return the open date, null if there is no such request
+	 */
+	public java.sql.Date serviceRequestDate(int rid) throws SQLException {
+		ColumnarResult dateService = executeQueryAndReturnColumns("SELECT date FROM Service_Request WHERE rid = ?;", rid);
+		if (dateService.rowCount() == 0) return null;
+		return java.sql.Date.valueOf(dateService.getString(0, 0));
+	}//end serviceRequestDate
+
+	/**
+	 * Method to check whether a mechanic with the given id exists.
+	 */
+	public boolean mechanicExists(int mid) throws SQLException {
+		return executeQuery("SELECT id FROM Mechanic WHERE id = ?;", mid) != 0;
+	}//end mechanicExists
+
+	/**
+	 * Method to close a service request.
+	 *
+	 * @return the wid of the new Closed_Request row
+	 * @throws java.lang.IllegalArgumentException when the request does not
+	 *         exist or closeDate is not after its open date
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public int closeServiceRequest(int rid, int mid, java.sql.Date closeDate, String comment, int bill) throws SQLException {
+		java.sql.Date openDate = serviceRequestDate(rid);
+		if (openDate == null)
+			throw new IllegalArgumentException("invalid rid");
+		if (!openDate.before(closeDate))
+			throw new IllegalArgumentException("Incorrect Date");
+		int wid = this._ids.nextId(IdAllocator.CLOSED_REQUEST);
+		executeUpdate(INSERT_CLOSED_REQUEST, wid, rid, mid, closeDate, comment, bill);
+		return wid;
+	}//end closeServiceRequest
+
+	public int listCustomersWithBillLessThan(int bill) throws SQLException {
+		int rowCount = printSnapshot("bills", bill);
+		if (rowCount >= 0) return rowCount;
+		return executeQueryAndPrintResult(QUERY_BILL_LESS_THAN, bill);
+	}
+
+	public int listCustomersWithMoreCarsThan(int cars) throws SQLException {
+		int rowCount = printSnapshot("customers-with-cars", cars);
+		if (rowCount >= 0) return rowCount;
+		return executeQueryAndPrintResult(QUERY_CUSTOMERS_WITH_MORE_CARS_THAN, cars);
+	}
+
+	public int listCarsBeforeYearUnderMiles(int year, int miles) throws SQLException {
+		int rowCount = printSnapshot("old-cars", year, miles);
+		if (rowCount >= 0) return rowCount;
+		return executeQueryAndPrintResult(QUERY_CARS_BEFORE_YEAR_UNDER_MILES, year, miles);
+	}
+
+	/**
+	 * Method to print a report from its snapshot (see ReportSnapshots),
+	 * after a line telling how old the snapshot is; JSON sessions get no
+	 * such line, the HTTP API sends it as headers (see snapshotTime()).
+	 *
+	 * @param report a report name, see ReportSnapshots.VIEWS
+	 * @param args the parameters the report is asked for with
+	 * @return the number of rows, -1 when the report has no snapshot for
+	 *         these parameters
+	 */
+	private int printSnapshot(String report, int... args) throws SQLException {
+		if (this._snapshots == null) return -1;
+		int view = this._snapshots.find(report, args);
+		if (view < 0) return -1;
+		if (!this._json){
+			long refreshed = this._snapshots.refreshed(view);
+			this._out.printf("(snapshot of %s, %d s old)%n", new java.sql.Timestamp(refreshed).toString().replaceFirst("\\.\\d+$", ""), (System.currentTimeMillis() - refreshed) / 1000);
+		}//end if
+		try{
+			String query = ReportSnapshots.query(view);
+			return query.indexOf('?') < 0 ? executeQueryAndPrintResult(query) : executeQueryAndPrintResult(query, args[0]);
 		}catch (SQLException e){
-	         // ignored.
+			// 42P01: the view was dropped, e.g. by PartitionMigration; it is created again
+			if (!"42P01".equals(e.getSQLState())) throw e;
+			this._snapshots.invalidate(view);
+			return -1;
 		}//end try
-	}//end cleanup
+	}//end printSnapshot
+
+	/**
+	 * Method to tell whether a report is served from a snapshot.
+	 *
+	 * @return when the snapshot was taken, in milliseconds since the
+	 *         epoch, or null when the report runs live
+	 */
+	public Long snapshotTime(String report, int... args) {
+		if (this._snapshots == null) return null;
+		int view = this._snapshots.find(report, args);
+		return view < 0 ? null : this._snapshots.refreshed(view);
+	}//end snapshotTime
+
+	/**
+	 * Method to print the k most serviced cars, from the in-memory counts
+	 * once loadServiceCounts() ran and from Car_Service_Count otherwise.
+	 */
+	public int listKCarsWithTheMostServices(int k) throws SQLException {
+		if (!this._serviceCounts.isLoaded()){
+			int rowCount = printSnapshot("most-serviced-cars", k);
+			if (rowCount >= 0) return rowCount;
+			return executeQueryAndPrintResult(QUERY_K_CARS_WITH_MOST_SERVICES, k);
+		}//end if
+		try{
+			return printer().print(TOP_CARS_HEADER, TOP_CARS_WIDTH, TOP_CARS_TYPES, this._serviceCounts.top(k));
+		}catch (java.io.IOException e){
+			throw new SQLException("Unable to write the result: " + e.getMessage(), e);
+		}//end try
+	}
+
+	/**
+	 * Method to (re)load the service count of every car into memory.  From
+	 * then on listKCarsWithTheMostServices() does not query the database
+	 * and insertServiceRequest() keeps the counts current.  Call it again
+	 * after other programs inserted service requests or reloaded the data.
+	 */
+	public void loadServiceCounts() throws SQLException {
+		this._serviceCounts.load(executeQueryAndReturnColumns(QUERY_LOAD_SERVICE_COUNTS));
+	}//end loadServiceCounts
+
+	/**
+	 * Method to compare the in-memory service counts with a full count of
+	 * Service_Request and print every car they disagree on.
+	 *
+	 * @return the number of cars whose counts differ
+	 */
+	public int checkServiceCounts() throws SQLException {
+		Map<String, Long> cached = this._serviceCounts.counts();
+		int mismatches = 0;
+		ColumnarResult counts = executeQueryAndReturnColumns(QUERY_SERVICE_COUNTS);
+		for (int r = 0; r < counts.rowCount(); ++r){
+			String vin = counts.getString(r, 0);
+			long expected = counts.getLong(r, 1);
+			Long count = cached.remove(vin);
+			if (count == null || count != expected){
+				this._out.println(vin + ": cached " + count + ", Service_Request " + expected);
+				++mismatches;
+			}//end if
+		}//end for
+		for (Map.Entry<String, Long> e : cached.entrySet()){
+			this._out.println(e.getKey() + ": cached " + e.getValue() + ", Service_Request 0");
+			++mismatches;
+		}//end for
+		return mismatches;
+	}//end checkServiceCounts
+
+	public int listCustomersByTotalBill() throws SQLException {
+		return executeQueryAndPrintResult(QUERY_CUSTOMERS_BY_TOTAL_BILL);
+	}
+
+	/**
+	 * Method to print the closed requests billed less than bill and closed
+	 * in [from, to).
+	 */
+	public int listBillsLessThanBetween(int bill, java.sql.Date from, java.sql.Date to) throws SQLException {
+		return executeQueryAndPrintResult(QUERY_BILL_LESS_THAN_BETWEEN, bill, from, to);
+	}
+
+	/**
+	 * Method to print the k cars with the most service requests opened in
+	 * [from, to).
+	 */
+	public int listKCarsWithTheMostServicesBetween(int k, java.sql.Date from, java.sql.Date to) throws SQLException {
+		return executeQueryAndPrintResult(QUERY_K_CARS_WITH_MOST_SERVICES_BETWEEN, from, to, k);
+	}
+
+	/**
+	 * Method to print the customers by the total of their bills closed in
+	 * [from, to).  A request is opened before it is closed, so its opening
+	 * date is below to as well, which lets Service_Request be pruned too.
+	 */
+	public int listCustomersByTotalBillBetween(java.sql.Date from, java.sql.Date to) throws SQLException {
+		return executeQueryAndPrintResult(QUERY_CUSTOMERS_BY_TOTAL_BILL_BETWEEN, from, to, to);
+	}
+
+	/**
+	 * Method to fetch one page of the closed requests billed less than
+	 * bill, ordered by bill and wid.
+	 *
+	 * @param token the next() token of the previous page, null for the first
+	 * @param pageSize rows per page
+	 */
+	public ReportPage pageBillsLessThan(int bill, String token, int pageSize) throws SQLException {
+		String[] after = token == null ? new String[] { "-1", "-1" } : ReportPage.key("bills", token, 2);
+		return page("bills", PAGE_BILL_LESS_THAN, new int[] { 3, 0 }, pageSize, bill, after[0], after[1]);
+	}//end pageBillsLessThan
+
+	/**
+	 * Method to fetch one page of the cars made before year and serviced
+	 * under miles, ordered by make, model and year.
+	 *
+	 * @param token the next() token of the previous page, null for the first
+	 * @param pageSize rows per page
+	 */
+	public ReportPage pageCarsBeforeYearUnderMiles(int year, int miles, String token, int pageSize) throws SQLException {
+		String[] after = token == null ? new String[] { "", "", "-1" } : ReportPage.key("old-cars", token, 3);
+		return page("old-cars", PAGE_CARS_BEFORE_YEAR_UNDER_MILES, new int[] { 0, 1, 2 }, pageSize, year, miles, after[0], after[1], after[2]);
+	}//end pageCarsBeforeYearUnderMiles
+
+	/**
+	 * Method to fetch one page of the customers by descending total bill,
+	 * ties broken by descending id.
+	 *
+	 * @param token the next() token of the previous page, null for the first
+	 * @param pageSize rows per page
+	 */
+	public ReportPage pageCustomersByTotalBill(String token, int pageSize) throws SQLException {
+		String[] after = token == null ? new String[] { Long.toString(Long.MAX_VALUE), Integer.toString(Integer.MAX_VALUE) } : ReportPage.key("total-bill", token, 2);
+		return page("total-bill", PAGE_CUSTOMERS_BY_TOTAL_BILL, new int[] { 3, 0 }, pageSize, after[0], after[1]);
+	}//end pageCustomersByTotalBill
+
+	/**
+	 * Method to fetch one page of a report.  One row more than asked for is
+	 * fetched to tell whether there is a next page.
+	 *
+	 * @param report the name of the report, part of its tokens
+	 * @param query the page query, whose last placeholder is the LIMIT
+	 * @param key the columns of the sort key, in the order the query compares them
+	 * @param pageSize rows per page
+	 * @param params the values of the other placeholders, in order
+	 */
+	private ReportPage page(String report, String query, int[] key, int pageSize, Object... params) throws SQLException {
+		Object[] all = Arrays.copyOf(params, params.length + 1);
+		all[params.length] = ReportPage.pageSize(pageSize) + 1;
+		PooledConnection conn = this._pool.acquire ();
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		long bytes = 0;
+		try{
+			PreparedStatement stmt = prepare (conn, query, all);
+			ResultSet rs = stmt.executeQuery ();
+			ResultSetMetaData rsmd = rs.getMetaData ();
+			int numCol = rsmd.getColumnCount ();
+			String[] header = new String[numCol];
+			int[] types = new int[numCol];
+			boolean[] padded = new boolean[numCol];
+			for (int i = 0; i < numCol; ++i){
+				header[i] = rsmd.getColumnName (i + 1);
+				types[i] = rsmd.getColumnType (i + 1);
+				padded[i] = types[i] == java.sql.Types.CHAR;
+			}//end for
+			List<String[]> rows = new ArrayList<String[]>(pageSize + 1);
+			while (rs.next ()){
+				String[] row = new String[numCol];
+				for (int i = 0; i < numCol; ++i){
+					String value = rs.getString (i + 1);
+					if (value != null) bytes += value.length ();
+					row[i] = value != null && padded[i] ? value.replaceFirst (" +$", "") : value;
+				}//end for
+				rows.add (row);
+			}//end while
+			rs.close ();
+			rowCount = rows.size ();
+			String next = null;
+			if (rows.size () > pageSize){
+				rows.remove (pageSize);
+				String[] last = rows.get (pageSize - 1);
+				String[] lastKey = new String[key.length];
+				for (int i = 0; i < key.length; ++i) lastKey[i] = last[key[i]];
+				next = ReportPage.token (report, lastKey);
+			}//end if
+			return new ReportPage (header, ResultPrinter.columnWidths (rsmd), types, rows, next);
+		}catch (SQLException e){
+			failed (conn, query, e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+			record (query, all, start, rowCount, bytes);
+		}//end try
+	}//end page
+
+	/**
+	 * Method to print a report page by page, asking before each next page.
+	 *
+	 * @param page the first page
+	 * @param next fetches the page of a token
+	 * @return the number of rows printed
+	 */
+	private int printPages(ReportPage page, PageFetcher next) throws Exception {
+		int rowCount = 0;
+		while (true){
+			printer().print(page.header(), page.width(), page.types(), page.rows());
+			rowCount += page.rows().size();
+			if (page.next() == null) return rowCount;
+			this._out.println("-- Enter for the next page, q to stop --");
+			String line = this._in.readLine();
+			if (line == null || line.trim().equalsIgnoreCase("q")) return rowCount;
+			page = next.fetch(page.next());
+		}//end while
+	}//end printPages
+
+	//fetches the page following a token
+	private interface PageFetcher {
+		ReportPage fetch(String token) throws SQLException;
+	}
 
 	/**
 	 * The main execution method
-	 * 
+	 *
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		String command = args.length > 3 ? args[3] : "menu";
+		if (args.length < 3 || !validCommand (command, args.length - 4)) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [command]\n" +
+		            "Commands:\n" +
+		            "  menu                               interactive menu (default)\n" +
+		            "  server <listen port> [pool size]   serve the menu to many terminals\n" +
+		            "  import <data dir> [threads] [truncate] [scale]  load the CSV datasets with COPY\n" +
+		            "  http <listen port> [pool size]     serve the operations as a JSON API (see MechanicShopHttpServer)\n" +
+		            "  batch <script|-> [threads]         run the operations of a CSV script (see BatchRunner)\n" +
+		            "  check                              compare the cached service counts with Service_Request\n" +
+		            "  export <report|table> <file> [values]  write a report or table to a CSV file, gzipped\n" +
+		            "                                     if file ends in .gz (see ReportExport)\n" +
+		            "  generate <scale factor> <seed> <threads> <out dir|truncate>  generate synthetic data as\n" +
+		            "                                     CSV files into out dir, or into the database after\n" +
+		            "                                     truncating every table\n" +
+		            "  partition [batch rows]             partition Service_Request and Closed_Request by month\n" +
+		            "                                     while in use (see PartitionMigration)\n" +
+		            "  load <clerks> <ops per second> <minutes> [mix]  simulate clerks at an open-loop\n" +
+		            "                                     arrival rate and report throughput, errors and\n" +
+		            "                                     tail latency (see LoadGenerator)");
 			return;
 		}//end if
-		
+
 		MechanicShop esql = null;
-		
+
 		try{
 			System.out.println("(1)");
-			
+
 			try {
 				Class.forName("org.postgresql.Driver");
 			}catch(Exception e){
@@ -245,47 +1375,96 @@ public class MechanicShop{
 				e.printStackTrace();
 				return;
 			}
-			
+
 			System.out.println("(2)");
 			String dbname = args[0];
 			String dbport = args[1];
 			String user = args[2];
-			
-			esql = new MechanicShop (dbname, dbport, user, "");
-			
-			boolean keepon = true;
-			while(keepon){
-				System.out.println("MAIN MENU");
-				System.out.println("---------");
-				System.out.println("1. AddCustomer");
-				System.out.println("2. AddMechanic");
-				System.out.println("3. AddCar");
-				System.out.println("4. InsertServiceRequest");
-				System.out.println("5. CloseServiceRequest");
-				System.out.println("6. ListCustomersWithBillLessThan100");
-				System.out.println("7. ListCustomersWithMoreThan20Cars");
-				System.out.println("8. ListCarsBefore1995With50000Milles");
-				System.out.println("9. ListKCarsWithTheMostServices");
-				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
-				System.out.println("11. < EXIT");
-				
-				/*
-				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
-				 */
-				switch (readChoice()){
-					case 1: AddCustomer(esql); break;
-					case 2: AddMechanic(esql); break;
-					case 3: AddCar(esql); break;
-					case 4: InsertServiceRequest(esql); break;
-					case 5: CloseServiceRequest(esql); break;
-					case 6: ListCustomersWithBillLessThan100(esql); break;
-					case 7: ListCustomersWithMoreThan20Cars(esql); break;
-					case 8: ListCarsBefore1995With50000Milles(esql); break;
-					case 9: ListKCarsWithTheMostServices(esql); break;
-					case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
-					case 11: keepon = false; break;
-				}
-			}
+
+			switch (command){
+				case "menu":
+					// the pool only opens the connections the dashboard asks for
+					esql = new MechanicShop (dbname, dbport, user, "", Dashboard.REPORTS);
+					esql.loadServiceCounts ();
+					esql.loadCustomerIndex ();
+					esql.loadVinFilter ();
+					runMenu (esql);
+					break;
+				case "server":
+					int listenPort = Integer.parseInt (args[4]);
+					int poolSize = args.length > 5 ? Integer.parseInt (args[5]) : MechanicShopServer.DEFAULT_POOL_SIZE;
+					esql = new MechanicShop (dbname, dbport, user, "", poolSize);
+					esql.loadServiceCounts ();
+					esql.loadCustomerIndex ();
+					esql.loadVinFilter ();
+					new MechanicShopServer (esql, listenPort).serve ();
+					break;
+				case "import":
+					int threads = args.length > 5 ? Integer.parseInt (args[5]) : 3;
+					boolean truncate = args.length > 6 && args[6].equals ("truncate");
+					int scale = args.length > 7 ? Integer.parseInt (args[7]) : 1;
+					esql = new MechanicShop (dbname, dbport, user, "", threads);
+					new BulkImport (esql.pool (), esql.ids (), System.out).importDirectory (new File (args[4]), threads, truncate, scale);
+					break;
+				case "export":
+					int[] values = new int[args.length - 6];
+					for (int i = 0; i < values.length; ++i)
+						values[i] = Integer.parseInt (args[6 + i]);
+					esql = new MechanicShop (dbname, dbport, user, "");
+					new ReportExport (esql.pool (), System.out).export (args[4], new File (args[5]), values);
+					break;
+				case "http":
+					int httpPoolSize = args.length > 5 ? Integer.parseInt (args[5]) : MechanicShopServer.DEFAULT_POOL_SIZE;
+					esql = new MechanicShop (dbname, dbport, user, "", httpPoolSize);
+					esql.loadServiceCounts ();
+					esql.loadCustomerIndex ();
+					esql.loadVinFilter ();
+					new MechanicShopHttpServer (esql, Integer.parseInt (args[4])).serve ();
+					break;
+				case "batch":
+					int batchThreads = args.length > 5 ? Integer.parseInt (args[5]) : 1;
+					esql = new MechanicShop (dbname, dbport, user, "", batchThreads);
+					BufferedReader script = args[4].equals ("-") ? new BufferedReader (new InputStreamReader (System.in)) : new BufferedReader (new FileReader (args[4]));
+					try{
+						new BatchRunner (esql, System.out, System.err, batchThreads).run (script);
+					}finally{
+						script.close ();
+					}//end try
+					break;
+				case "check":
+					esql = new MechanicShop (dbname, dbport, user, "");
+					esql.loadServiceCounts ();
+					int mismatches = esql.checkServiceCounts ();
+					System.out.println (mismatches == 0 ? "service counts are consistent" : mismatches + " car(s) with inconsistent service counts");
+					break;
+				case "partition":
+					int batchRows = args.length > 4 ? Integer.parseInt (args[4]) : PartitionMigration.DEFAULT_BATCH_SIZE;
+					esql = new MechanicShop (dbname, dbport, user, "");
+					new PartitionMigration (esql.pool (), System.out).migrate (batchRows);
+					break;
+				case "load":
+					int clerks = Integer.parseInt (args[4]);
+					esql = new MechanicShop (dbname, dbport, user, "", clerks);
+					esql.loadServiceCounts ();
+					esql.loadCustomerIndex ();
+					esql.loadVinFilter ();
+					LoadGenerator load = new LoadGenerator (esql, System.out, clerks, Double.parseDouble (args[5]), args.length > 7 ? args[7] : null);
+					load.run (Double.parseDouble (args[6]));
+					break;
+				case "generate":
+					int workers = args.length > 6 ? Integer.parseInt (args[6]) : Runtime.getRuntime ().availableProcessors ();
+					DataGenerator generator = new DataGenerator (Double.parseDouble (args[4]), Long.parseLong (args[5]), workers, System.out);
+					if (args.length < 8){
+						System.err.println ("generate truncates every table of the database; add truncate to confirm, or an out dir for CSV files");
+					}else if (!args[7].equals ("truncate")){
+						generator.writeCsv (new File (args[7]));
+					}else{
+						// one connection per table of the widest level
+						esql = new MechanicShop (dbname, dbport, user, "", DataGenerator.LEVELS[0].length);
+						generator.copyInto (esql.pool (), esql.ids ());
+					}//end if
+					break;
+			}//end switch
 		}catch(Exception e){
 			System.err.println (e.getMessage ());
 		}finally{
@@ -294,456 +1473,480 @@ public class MechanicShop{
 					System.out.print("Disconnecting from database...");
 					esql.cleanup ();
 					System.out.println("Done\n\nBye !");
-				}//end if				
+				}//end if
 			}catch(Exception e){
 				// ignored.
 			}
 		}
 	}
 
-	public static int readChoice() {
+	/**
+	 * Method to check the arguments given after the command name.
+	 */
+	private static boolean validCommand (String command, int argc) {
+		switch (command){
+			case "menu": return argc <= 0;
+			case "server": return argc >= 1 && argc <= 2;
+			case "import": return argc >= 1 && argc <= 4;
+			case "http": return argc >= 1 && argc <= 2;
+			case "batch": return argc >= 1 && argc <= 2;
+			case "check": return argc <= 0;
+			case "export": return argc >= 2 && argc <= 4;
+			case "generate": return argc >= 2 && argc <= 4;
+			case "partition": return argc <= 1;
+			case "load": return argc >= 3 && argc <= 4;
+			default: return false;
+		}//end switch
+	}
+
+	/**
+	 * Method to run the main menu of a session until the user exits or
+	 * the terminal is closed.
+	 */
+	public static void runMenu(MechanicShop esql) throws Exception {
+		PrintStream out = esql._out;
+		boolean keepon = true;
+		while(keepon){
+			out.println("MAIN MENU");
+			out.println("---------");
+			out.println("1. AddCustomer");
+			out.println("2. AddMechanic");
+			out.println("3. AddCar");
+			out.println("4. InsertServiceRequest");
+			out.println("5. CloseServiceRequest");
+			out.println("6. ListCustomersWithBillLessThan100");
+			out.println("7. ListCustomersWithMoreThan20Cars");
+			out.println("8. ListCarsBefore1995With50000Milles");
+			out.println("9. ListKCarsWithTheMostServices");
+			out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
+			out.println("11. < EXIT");
+			out.println("12. ShowMetrics");
+			out.println("13. PageReport");
+			out.println("14. Dashboard");
+			out.println("15. ReportForPeriod");
+
+			/*
+			 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
+			 */
+			switch (readChoice(esql)){
+				case 1: AddCustomer(esql); break;
+				case 2: AddMechanic(esql); break;
+				case 3: AddCar(esql); break;
+				case 4: InsertServiceRequest(esql); break;
+				case 5: CloseServiceRequest(esql); break;
+				case 6: ListCustomersWithBillLessThan100(esql); break;
+				case 7: ListCustomersWithMoreThan20Cars(esql); break;
+				case 8: ListCarsBefore1995With50000Milles(esql); break;
+				case 9: ListKCarsWithTheMostServices(esql); break;
+				case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
+				case 11: keepon = false; break;
+				case 12: esql.metrics().print(out); break;
+				case 13: PageReport(esql); break;
+				case 14: Dashboard(esql); break;
+				case 15: ReportForPeriod(esql); break;
+			}
+		}
+	}//end runMenu
+
+	public static int readChoice(MechanicShop esql) throws java.io.IOException {
 		int input;
 		// returns only if a correct value is given.
 		do {
-			System.out.print("Please make your choice: ");
+			esql._out.print("Please make your choice: ");
+			esql._out.flush();
+			String line = esql._in.readLine();
+			if (line == null) return 11; // terminal closed, treat as EXIT
 			try { // read the integer, parse it and break.
-				input = Integer.parseInt(in.readLine());
+				input = Integer.parseInt(line.trim());
 				break;
 			}catch (Exception e) {
-				System.out.println("Your input is invalid!");
+				esql._out.println("Your input is invalid!");
 				continue;
 			}//end try
 		}while (true);
 		return input;
 	}//end readChoice
-	
+
+	/**
+	 * Method to read one line of the terminal of a session.
+	 *
+	 * @throws java.io.EOFException when the terminal was closed
+	 */
+	private static String readLine(MechanicShop esql) throws java.io.IOException {
+		String line = esql._in.readLine();
+		if (line == null) throw new java.io.EOFException("terminal closed");
+		return line;
+	}
+
 	public static void AddCustomer(MechanicShop esql){//1
-		//int trigger = 0;
+		PrintStream out = esql._out;
 		try{
-			//String test = "SELECT MAX(id) FROM Customer;";
-			//esql.executeQueryAndPrintResult(test);
-			//test = "SELECT nextval(
-			String init = "SELECT C.id FROM Customer C;";
-			List<List<String>> data = esql.executeQueryAndReturnResult(init);
-			System.out.println("ID: " + data.size());
-			int id = data.size();
-			
-			System.out.println("Enter your first name: ");
-			String fname = in.readLine(); 
+			out.println("Enter your first name: ");
+			String fname = readLine(esql);
 			while(fname.length() > 32 || fname.length() <= 0){
-			  System.out.println("Error");
-			  System.out.println("Enter your first name: ");
-			  fname = in.readLine();
+			  out.println("Error");
+			  out.println("Enter your first name: ");
+			  fname = readLine(esql);
 			}
 			fname = fname.substring(0,1).toUpperCase() + fname.substring(1);
-			System.out.println(fname);
-			
-			
-			System.out.println("Enter your last name: ");
-			String lname = in.readLine();
+			out.println(fname);
+
+
+			out.println("Enter your last name: ");
+			String lname = readLine(esql);
 			while(lname.length() > 32 || lname.length() <= 0){
-			  System.out.println("Error");
-			  System.out.println("Enter your Last name: ");
-			  lname = in.readLine();
-			}	
-			
+			  out.println("Error");
+			  out.println("Enter your Last name: ");
+			  lname = readLine(esql);
+			}
+
 			lname = lname.substring(0,1).toUpperCase() + lname.substring(1);
-			
-			System.out.println("Enter your phone number:(###-###-####)");
-			String phone = in.readLine();
+
+			out.println("Enter your phone number:(###-###-####)");
+			String phone = readLine(esql);
 			while(phone.length() > 13 || phone.length() <= 0){
-			  System.out.println("Error");
-			  System.out.println("Enter your phone number: ");
-			  phone = in.readLine();
+			  out.println("Error");
+			  out.println("Enter your phone number: ");
+			  phone = readLine(esql);
 			}
-			
-			
-			System.out.println("Enter your address: ");
-			String address = in.readLine();
+
+
+			out.println("Enter your address: ");
+			String address = readLine(esql);
 			while(address.length() > 256 || address.length() <= 0){
-			  System.out.println("Error");
-			  System.out.println("Enter your address: ");
-			  address = in.readLine();
+			  out.println("Error");
+			  out.println("Enter your address: ");
+			  address = readLine(esql);
 			}
-	
-			String query = String.format("INSERT INTO Customer(id, fname, lname, phone, address) VALUES (%d, '%s', '%s', '%s', '%s');", id, fname, lname, phone, address);
-			System.out.println(query);
-			esql.executeQuery(query);
-			//int rowCount = esql.executeQuery(query);
-			//String test2 = "SELECT C.* FROM Customer C WHERE C.id = 500;";
-			//esql.executeQueryAndPrintResult(test2);
-			//System.out.println("total rows: " + rowCount);
+
+			int id = esql.addCustomer(fname, lname, phone, address);
+			out.println("ID: " + id);
 		}
 		catch(Exception e){
-			System.out.println(e.getMessage());
-			//if (trigger == 1) {
-			//  System.out.println("invalid input value");
-			//} 
-			//AddCustomer(esql);	
+			out.println(e.getMessage());
 		}
-		
+
 	}
-	
+
 	public static void AddMechanic(MechanicShop esql){//2
+		PrintStream out = esql._out;
 		try{
-			//String test = "SELECT MAX(id) FROM Mechanic;";
-			//esql.executeQueryAndPrintResult(test);
-			//test = "SELECT nextval(
-			String init = "SELECT M.id FROM Mechanic M;";
-			List<List<String>> data = esql.executeQueryAndReturnResult(init);
-			System.out.println("ID: " + data.size());
-			int id = data.size();
-			
-			System.out.println("Enter your first name: ");
-			String fname = in.readLine(); 
+			out.println("Enter your first name: ");
+			String fname = readLine(esql);
 			while(fname.length() > 32 || fname.length() <= 0){
-			  System.out.println("Error");
-			  System.out.println("Enter your first name: ");
-			  fname = in.readLine();
+			  out.println("Error");
+			  out.println("Enter your first name: ");
+			  fname = readLine(esql);
 			}
-			
+
 			fname = fname.substring(0,1).toUpperCase() + fname.substring(1);
-	
-			System.out.println("Enter your last name: ");
-			String lname = in.readLine();
+
+			out.println("Enter your last name: ");
+			String lname = readLine(esql);
 			while(lname.length() > 32 || lname.length() <= 0){
-			  System.out.println("Error");
-			  System.out.println("Enter your Last name: ");
-			  lname = in.readLine();
-			}	
-			
+			  out.println("Error");
+			  out.println("Enter your Last name: ");
+			  lname = readLine(esql);
+			}
+
 			lname = lname.substring(0,1).toUpperCase() + lname.substring(1);
-			
-			System.out.println("How many years of experience do you have? ");
-			int experience = Integer.parseInt(in.readLine());
+
+			out.println("How many years of experience do you have? ");
+			int experience = Integer.parseInt(readLine(esql));
 			while(experience < 0 || experience > 100){
-			  System.out.println("Error");
-			  System.out.println("How many years of experience do you have? ");
-			  experience = Integer.parseInt(in.readLine());
+			  out.println("Error");
+			  out.println("How many years of experience do you have? ");
+			  experience = Integer.parseInt(readLine(esql));
 			}
-			String query = String.format("INSERT INTO Mechanic(id, fname, lname, experience) VALUES (%d, '%s', '%s', %d);", id, fname, lname, experience);
-			System.out.println(query);
-			esql.executeQuery(query);
-			int rowCount = esql.executeQuery(query);
-			System.out.println("total rows: " + rowCount);
+			int id = esql.addMechanic(fname, lname, experience);
+			out.println("ID: " + id);
 		}
 		catch(Exception e) {
-			System.out.println(e.getMessage());
+			out.println(e.getMessage());
 		}
 	}
-	
+
 	public static void AddCar(MechanicShop esql){//3
+		PrintStream out = esql._out;
 		try{
-			//int id = 0;
-			System.out.println("What is the VIN of your car?(First 6 characters are letters, last 10 are numbers)");
-			String vin = in.readLine();
+			out.println("What is the VIN of your car?(First 6 characters are letters, last 10 are numbers)");
+			String vin = readLine(esql);
 			vin = vin.toUpperCase();
-			//System.out.println(vin);
-			String query = String.format("SELECT C.vin FROM Car C WHERE C.vin = '%s';", vin);
-			
-			//List<List<String>> test = esql.executeQueryAndReturnResult(query);
-			//System.out.println(test.getString(0));
-			while(esql.executeQuery(query) != 0 || vin.length() > 14){
-				System.out.println("VIN has to be unique or vin too long");
-				System.out.println("RE-Enter your VIN:");
-				vin = in.readLine();
+			while(vin.length() > 16 || esql.carExists(vin)){
+				out.println("VIN has to be unique or vin too long");
+				out.println("RE-Enter your VIN:");
+				vin = readLine(esql);
 				vin = vin.toUpperCase();
-				query = String.format("SELECT C.vin FROM Car C WHERE C.vin = '%s';", vin);
 			}
-			System.out.println("Enter the make of your car: ");
-			String make = in.readLine();
+			out.println("Enter the make of your car: ");
+			String make = readLine(esql);
 			while(make.length() < 0 || make.length() > 32){
-				System.out.println("Error");
-				System.out.println("Enter the make of your car");
-				make = in.readLine();
+				out.println("Error");
+				out.println("Enter the make of your car");
+				make = readLine(esql);
 			}
-			
-			System.out.println("Enter the Model of your car");
-			String model = in.readLine();
+
+			out.println("Enter the Model of your car");
+			String model = readLine(esql);
 			while(model.length() < 0 || model.length() > 32){
-				System.out.println("Error");
-				System.out.println("Enter the model of your car");
-				model = in.readLine();
+				out.println("Error");
+				out.println("Enter the model of your car");
+				model = readLine(esql);
 			}
-			
-			System.out.println("what year is the model of your car");
-			int year = Integer.parseInt(in.readLine());
+
+			out.println("what year is the model of your car");
+			int year = Integer.parseInt(readLine(esql));
 			while(year <1970){
-				System.out.println("not a valid year");
-				System.out.println("what year is the model of your car");
-				year = Integer.parseInt(in.readLine());
-			} 
-			
-			System.out.println("What is your last name"); 
-			String lname = in.readLine();
+				out.println("not a valid year");
+				out.println("what year is the model of your car");
+				year = Integer.parseInt(readLine(esql));
+			}
+
+			out.println("What is your last name");
+			String lname = readLine(esql);
 			lname = lname.substring(0,1).toUpperCase() + lname.substring(1);
-			//lname.charAt(0) = lname.charAt(0).toUpperCase();
-			
-			System.out.println("What is your first name");
-			String fname = in.readLine();
+
+			out.println("What is your first name");
+			String fname = readLine(esql);
 			fname = fname.substring(0,1).toUpperCase() + fname.substring(1);
-			String findowner = "SELECT id FROM Customer WHERE lname = '" + lname + "' AND fname = '" + fname + "';";
-			//String findowner = String.format("SELECT id FROM Customer WHERE lname = '%s';", lname); 
-			List<List<String>> cust_id = esql.executeQueryAndReturnResult(findowner);
-			System.out.println(cust_id);
-			
-			String insert = String.format("INSERT INTO Car(vin, make, model, year) VALUES('%s', '%s', '%s', %d);", vin, make, model, year);
-			//esql.executeQuery(insert);
-			//esql.executeQuery(insert);
-			
-			String add_owns = "SELECT ownership_id FROM Owns;";
-			//String cust_id = "SELECT 
-			List<List<String>> owners = esql.executeQueryAndReturnResult(add_owns);
-			int ownersize = owners.size();
-			System.out.println("owner_id " + ownersize);
-			String add_to_owns = String.format("INSERT INTO Owns (ownership_id, customer_id, car_vin) VALUES (%d, %d, '%s');", ownersize, Integer.parseInt(cust_id.get(0).get(0)), vin);
-			System.out.println(add_to_owns);
-			//String tot = "SELECT vin FROM Car";
-			//List<List<String>> num_cars = esql.executeQueryAndReturnResult(tot);
-			
-		
-			
-			//esql.executeQueryAndPrintResult(insert);
-			esql.executeQuery(insert + "\n" + add_to_owns);
-			//System.out.println("this is an error: " + error);
-			//System.out.println("total cars: " + num_cars.size());
-			
-			//esql.executeQuery(add_to_owns);
-			
-			
-			
-			
+			List<List<String>> cust_id = esql.findCustomers(lname, fname);
+			if (cust_id.isEmpty()){
+				out.println("No customer named " + fname + " " + lname);
+				for (List<String> c : esql.searchCustomersByName(lname, MENU_SEARCH_LIMIT))
+					out.println("  did you mean " + c.get(0) + " " + c.get(1) + " " + c.get(2) + "?");
+				return;
+			}
+
+			int ownersize = esql.addCar(vin, make, model, year, Integer.parseInt(cust_id.get(0).get(0)));
+			out.println("owner_id " + ownersize);
 		}
 		catch(Exception e){
-			System.out.println(e.getMessage());
+			out.println(e.getMessage());
 		}
 	}
-	
+
 	public static void InsertServiceRequest(MechanicShop esql){//4
+		PrintStream out = esql._out;
 		try{
-			String test = "SELECT rid FROM Service_Request;";
-			List<List<String>> serviceRequest = esql.executeQueryAndReturnResult(test);
-			int rid = serviceRequest.size();
-			System.out.println("rid: " + rid);
+			out.println("What is your last name: ");
+			String lName = readLine(esql);
 
-			System.out.println("What is your last name: ");
-			String lName = in.readLine();
-
-			String customerQuery = "SELECT C.id, C.fname, C.lname FROM Customer C WHERE C.lName = '" + lName + "';";
-			List<List<String>> customers = esql.executeQueryAndReturnResult(customerQuery);
+			List<List<String>> customers = esql.findCustomers(lName, null);
+			if(customers.size() == 0){
+				// no exact match: list the customers whose name starts with it
+				customers = esql.searchCustomersByName(lName, MENU_SEARCH_LIMIT);
+			}
 			if(customers.size() == 0){
 				AddCustomer(esql);
+				customers = esql.findCustomers(lName, null);
+			}
+			for (List<String> c : customers){
+				out.println(c.get(0) + " " + c.get(1) + " " + c.get(2));
 			}
-			esql.executeQueryAndPrintResult(customerQuery);
-			/*System.out.println("Enter some shit");
-			String innn = in.readLine();
-			System.out.println(customers.get(0).get(2));
-			if (customers.get(0).get(0).equals(innn.trim())){
-				System.out.println("congratulations buddy")
-			*/
-			System.out.println("What is your customer id: ");
-			int cid = Integer.parseInt(in.readLine());
-
-			String vehicleQuery = "SELECT C.vin FROM Owns O, Car C WHERE O.car_vin=C.vin AND O.customer_id="+cid + ";";
-			List<List<String>> cars = esql.executeQueryAndReturnResult(vehicleQuery);
+			out.println("What is your customer id: ");
+			int cid = Integer.parseInt(readLine(esql));
+
+			String vehicleQuery = "SELECT C.vin FROM Owns O, Car C WHERE O.car_vin=C.vin AND O.customer_id = ?;";
+			List<List<String>> cars = esql.executeQueryAndReturnResult(vehicleQuery, cid);
 			if(cars.size() == 0){
 				AddCar(esql);
 			}
-			//esql.executeQueryAndPrintResult(vehicleQuery);
-			List<List<String>> v = esql.executeQueryAndReturnResult(vehicleQuery);
+			List<List<String>> v = esql.executeQueryAndReturnResult(vehicleQuery, cid);
 			for (int i = 0; i < v.size(); i++){
-				System.out.println((i + 1) + ". " + v.get(i).get(0));
+				out.println((i + 1) + ". " + v.get(i).get(0));
 			}
 
-			//System.out.println
 			String selection = String.format("Which VIN would you like to make a service request for(%d to %d:) ", 1, v.size());
-			System.out.println(selection);
-			int index = Integer.parseInt(in.readLine());
+			out.println(selection);
+			int index = Integer.parseInt(readLine(esql));
 			while(index < 1 || index > v.size()){
-				System.out.println("not valid");
-				System.out.println(selection);
-				index = Integer.parseInt(in.readLine());
+				out.println("not valid");
+				out.println(selection);
+				index = Integer.parseInt(readLine(esql));
 			}
 			String vin = v.get(index - 1).get(0);
-			System.out.println(vin);
-			
-			int old_odo = 0;
-			String s = "Select * FROM Service_Request WHERE car_vin = '" + vin + "';";
-			int rowcount = esql.executeQuery(s);
-			//String pre_od = "SELECT MAX(odometer) FROM Service_Request WHERE car_vin = '" + vin + "';";
-			//List<List<String>> prev_odometer = esql.executeQueryAndReturnResult(pre_od);
-			//int rowcount = executeQuery(pre_od);
-			if (rowcount > 0){
-				String pre_od = "SELECT MAX(odometer) FROM Service_Request WHERE car_vin = '" + vin + "';";
-				List<List<String>> prev_odometer = esql.executeQueryAndReturnResult(pre_od);
-				//System.out.println("wonderful");
-				if (prev_odometer.size() > 0) {
-					old_odo = Integer.parseInt(prev_odometer.get(0).get(0));
-				}
-			}
-			
-			System.out.println("Your last Odometer reading was: " +  old_odo);
-			
-			System.out.println("What does your odometer say?");
-			int odometer = Integer.parseInt(in.readLine());
-			
-			
-			
-			while(odometer < old_odo) {
-				System.out.println("Odometer must be > " + old_odo);
-				odometer = Integer.parseInt(in.readLine());
-			}
+			out.println(vin);
 
-			System.out.println("What is your complaint?");
-			String complaint = in.readLine();
+			int old_odo = esql.lastOdometer(vin);
+			out.println("Your last Odometer reading was: " +  old_odo);
 
-			DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-			Date date = new Date();
-			String stringDate = dateFormat.format(date);
-
-			String query = "INSERT INTO Service_Request(rid, customer_id, car_vin, date, odometer, complain) VALUES (" + rid + ","+cid +",'"+ vin + "','" + stringDate + "'," + odometer + ",'" + complaint + "');";
+			out.println("What does your odometer say?");
+			int odometer = Integer.parseInt(readLine(esql));
+			while(odometer < old_odo) {
+				out.println("Odometer must be > " + old_odo);
+				odometer = Integer.parseInt(readLine(esql));
+			}
 
-			esql.executeQuery(query);
-			
+			out.println("What is your complaint?");
+			String complaint = readLine(esql);
 
-			
+			int rid = esql.intakeServiceRequest(cid, vin, odometer, complaint);
+			out.println("rid: " + rid);
 		}
 		catch(Exception e){
-			System.out.println(e.getMessage());
+			out.println(e.getMessage());
 		}
 	}
-	
+
 	public static void CloseServiceRequest(MechanicShop esql) throws Exception
 	{//5
+		PrintStream out = esql._out;
 		try{
-			//int emp_id;
 			int mid;
 			int rid;
-			int wid;
-
-			String widQuery = "SELECT wid FROM Closed_Request;";
-			List<List<String>> widRequest = esql.executeQueryAndReturnResult(widQuery);
-			wid = widRequest.size() + 1;
-
 
-			String test = "SELECT rid FROM Service_Request;";
-			List<List<String>> serviceRequest = esql.executeQueryAndReturnResult(test);
-			System.out.println("what is your service request number");
-			rid = Integer.parseInt(in.readLine());
-
-			while(rid < 0 || rid > serviceRequest.size()){
-				System.out.println("invalid rid");
-				rid = Integer.parseInt(in.readLine());
+			out.println("what is your service request number");
+			rid = Integer.parseInt(readLine(esql));
+			java.sql.Date openDate = esql.serviceRequestDate(rid);
+			while(openDate == null){
+				out.println("invalid rid");
+				rid = Integer.parseInt(readLine(esql));
+				openDate = esql.serviceRequestDate(rid);
 			}
 
-			System.out.println("what is your Mechanic id");
-			mid = Integer.parseInt(in.readLine());
-			String emp_id = "SELECT mid FROM Closed_Request";
-			List<List<String>> mid_list = esql.executeQueryAndReturnResult(emp_id);
-			while(mid < 0 || mid > mid_list.size()){
-				System.out.println("invalid mid");
-				mid = Integer.parseInt(in.readLine());
+			out.println("what is your Mechanic id");
+			mid = Integer.parseInt(readLine(esql));
+			while(!esql.mechanicExists(mid)){
+				out.println("invalid mid");
+				mid = Integer.parseInt(readLine(esql));
 			}
 
-			String dateQuery = "SELECT date FROM Service_Request WHERE rid = '" + rid + "'";
-			List<List<String>> dateService = esql.executeQueryAndReturnResult(dateQuery);
-
-			SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd-yyyy");
-
-			String openedDate = dateService.get(0).get(0);
-			Date openDate = new SimpleDateFormat("MM-dd-yyyy", Locale.ENGLISH).parse(openedDate);
-			
-			//String stringDate = dateFormat.format(openedDate));
-			
-			System.out.println("What's the close date?(Format: MM-dd-yyyy)");
-			String closedDate = in.readLine();
-			
-			Date closeDate = new SimpleDateFormat("MM-dd-yyyy", Locale.ENGLISH).parse(closedDate);
-
-			/*
-			Date currentDate = dateFormat.parse(closeDate);
-			*/
+			out.println("What's the close date?(Format: MM-dd-yyyy)");
+			Date closeDate = new SimpleDateFormat("MM-dd-yyyy", Locale.ENGLISH).parse(readLine(esql));
 			while(!openDate.before(closeDate)){
-				System.out.println("Incorrect Date");
-				CloseServiceRequest(esql);
+				out.println("Incorrect Date");
+				out.println("What's the close date?(Format: MM-dd-yyyy)");
+				closeDate = new SimpleDateFormat("MM-dd-yyyy", Locale.ENGLISH).parse(readLine(esql));
 			}
-			
-
-			System.out.println("What is the mechanic's comment?");
-			String mComment = in.readLine();
 
-			System.out.println("What's the bill?");
-			int bill = Integer.parseInt(in.readLine());
-			String query = "INSERT INTO Closed_Request(wid,rid,mid,date,comment, bill) VALUES (" + wid + ","+rid +","+ mid + ",'" + closeDate + "','" + mComment + "'," + bill +")";
+			out.println("What is the mechanic's comment?");
+			String mComment = readLine(esql);
 
-			esql.executeQuery(query);	
+			out.println("What's the bill?");
+			int bill = Integer.parseInt(readLine(esql));
 
+			int wid = esql.closeServiceRequest(rid, mid, new java.sql.Date(closeDate.getTime()), mComment, bill);
+			out.println("wid: " + wid);
 			}
 			catch(Exception e){
-			System.out.println(e.getMessage());
-			} 
+			out.println(e.getMessage());
+			}
 	}
-	
+
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 		try {
-			String query = "SELECT date, comment, bill FROM Closed_Request WHERE bill < 100;";
-			int rowcount = esql.executeQueryAndPrintResult(query);
-			System.out.println("total row(s): " + rowcount);
+			int rowcount = esql.listCustomersWithBillLessThan(100);
+			esql._out.println("total row(s): " + rowcount);
 		}
 		catch(Exception e){
-			System.out.println(e.getMessage());
+			esql._out.println(e.getMessage());
 		}
 	}
-	
+
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){//7
 		try {
-			String query = "SELECT fname, lname FROM Customer,( SELECT customer_id,COUNT(customer_id) as car_num FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > 20 ) AS O WHERE O.customer_id = id;";
-			int rowcount = esql.executeQueryAndPrintResult(query);
-			System.out.println("total row(s): " + rowcount);
+			int rowcount = esql.listCustomersWithMoreCarsThan(20);
+			esql._out.println("total row(s): " + rowcount);
 		}
 		catch(Exception e){
-			System.out.println(e.getMessage());
-		}	
+			esql._out.println(e.getMessage());
+		}
 	}
-	
+
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
 		try {
-                        String query = "SELECT DISTINCT make,model, year FROM Car AS C, Service_Request AS S WHERE year < 1995 and S.car_vin = C.vin and S.odometer < 50000;";
-                        int rowcount = esql.executeQueryAndPrintResult(query);
-                        System.out.println("total row(s): " + rowcount);
+                        int rowcount = esql.listCarsBeforeYearUnderMiles(1995, 50000);
+                        esql._out.println("total row(s): " + rowcount);
                 }
                 catch(Exception e){
-                        System.out.println(e.getMessage());
+                        esql._out.println(e.getMessage());
                 }
-		
+
 	}
-	
+
 	public static void ListKCarsWithTheMostServices(MechanicShop esql){//9
 		try {
-				System.out.println("Enter a value for k");
-				int k = Integer.parseInt(in.readLine());
-                String query = "SELECT make, model, R.creq FROM Car AS C, ( SELECT car_vin, COUNT(rid) AS creq FROM Service_Request GROUP BY car_vin ) AS R WHERE R.car_vin = C.vin ORDER BY R.creq DESC LIMIT " + k + ";"; // 10;
-                int rowcount = esql.executeQueryAndPrintResult(query);
-                System.out.println("total row(s): " + rowcount);
+				esql._out.println("Enter a value for k");
+				int k = Integer.parseInt(readLine(esql));
+                int rowcount = esql.listKCarsWithTheMostServices(k);
+                esql._out.println("total row(s): " + rowcount);
             }
         catch(Exception e){
-            System.out.println(e.getMessage());
+            esql._out.println(e.getMessage());
         }
 
-		
+
 	}
-	
+
 	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//9
 		try {
-                        String query = "SELECT C.fname , C.lname, Total FROM Customer AS C, (SELECT sr.customer_id, SUM(CR.bill) AS Total FROM Closed_Request AS CR, Service_Request AS SR WHERE CR.rid = SR.rid GROUP BY SR.customer_id) AS A WHERE C.id=A.customer_id ORDER BY A.Total DESC;";
-                        int rowcount = esql.executeQueryAndPrintResult(query);
-                        System.out.println("total row(s): " + rowcount);
+                        int rowcount = esql.listCustomersByTotalBill();
+                        esql._out.println("total row(s): " + rowcount);
                 }
                 catch(Exception e){
-                        System.out.println(e.getMessage());
+                        esql._out.println(e.getMessage());
                 }
 
-		
+
+	}
+
+	public static void Dashboard(MechanicShop esql){//14
+		try {
+			new Dashboard(esql, esql._out).run(Dashboard.DEFAULT_TIMEOUT_MILLIS);
+		}
+		catch(Exception e){
+			esql._out.println(e.getMessage());
+		}
 	}
-	
+
+	public static void ReportForPeriod(MechanicShop esql){//15
+		PrintStream out = esql._out;
+		try {
+			out.println("Which report? 6, 9 or 10");
+			int report = Integer.parseInt(readLine(esql).trim());
+			out.println("Enter the first date of the period (yyyy-mm-dd)");
+			java.sql.Date from = java.sql.Date.valueOf(readLine(esql).trim());
+			out.println("Enter the day after the period (yyyy-mm-dd)");
+			java.sql.Date to = java.sql.Date.valueOf(readLine(esql).trim());
+			if (!from.before(to))
+				throw new IllegalArgumentException("Incorrect Date");
+			int rowcount;
+			switch (report){
+				case 6: rowcount = esql.listBillsLessThanBetween(100, from, to); break;
+				case 9:
+					out.println("Enter k");
+					rowcount = esql.listKCarsWithTheMostServicesBetween(Integer.parseInt(readLine(esql).trim()), from, to);
+					break;
+				case 10: rowcount = esql.listCustomersByTotalBillBetween(from, to); break;
+				default: out.println("Only reports 6, 9 and 10 have a period"); return;
+			}//end switch
+			out.println("total row(s): " + rowcount);
+		}
+		catch(Exception e){
+			out.println(e.getMessage());
+		}
+	}
+
+	public static void PageReport(MechanicShop esql){//13
+		PrintStream out = esql._out;
+		try {
+			out.println("Which report? 6, 8 or 10");
+			int report = Integer.parseInt(readLine(esql).trim());
+			out.println("Enter the page size (" + ReportPage.DEFAULT_PAGE_SIZE + ")");
+			String size = readLine(esql).trim();
+			final int pageSize = ReportPage.pageSize(size.isEmpty() ? ReportPage.DEFAULT_PAGE_SIZE : Integer.parseInt(size));
+			int rowcount;
+			switch (report){
+				case 6: rowcount = esql.printPages(esql.pageBillsLessThan(100, null, pageSize), t -> esql.pageBillsLessThan(100, t, pageSize)); break;
+				case 8: rowcount = esql.printPages(esql.pageCarsBeforeYearUnderMiles(1995, 50000, null, pageSize), t -> esql.pageCarsBeforeYearUnderMiles(1995, 50000, t, pageSize)); break;
+				case 10: rowcount = esql.printPages(esql.pageCustomersByTotalBill(null, pageSize), t -> esql.pageCustomersByTotalBill(t, pageSize)); break;
+				default: out.println("Only reports 6, 8 and 10 are paginated"); return;
+			}//end switch
+			out.println("total row(s): " + rowcount);
+		}
+		catch(Exception e){
+			out.println(e.getMessage());
+		}
+	}
+
 }
@@ -0,0 +1,346 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves the ten MechanicShop operations as a JSON API over
+ * HTTP, with the JDK's built-in server:
+ *
+ *	POST /customers            {"fname","lname","phone","address"}  -> {"id"}
+ *	POST /mechanics            {"fname","lname","experience"}       -> {"id"}
+ *	POST /cars                 {"vin","make","model","year","customerId"} -> {"ownershipId"}
+ *	POST /service-requests     {"customerId","vin","odometer","complaint"} -> {"rid"}
+ *	POST /closed-requests      {"rid","mid","date","comment","bill"} -> {"wid"}
+ *	GET  /reports/bills?below=100
+ *	GET  /reports/customers-with-cars?more-than=20
+ *	GET  /reports/old-cars?before=1995&amp;miles=50000
+ *	GET  /reports/most-serviced-cars?k=10
+ *	GET  /reports/customers-by-total-bill
+ *	GET  /customers?name=prefix | ?phone=digits | ?similar=lname [&amp;limit=20]
+ *	GET  /metrics              statement statistics, Prometheus text format
+ *
+ * The bills, old-cars and customers-by-total-bill reports are paginated
+ * when page-size or page is given: the response is then
+ * {"next": token or null, "rows": [...]}, and the next page is asked for
+ * with page=token (see ReportPage).  Given from=yyyy-mm-dd&amp;to=yyyy-mm-dd,
+ * the bills, most-serviced-cars and customers-by-total-bill reports only
+ * count the requests dated in [from, to).
+ *
+ * With an intake journal (see IntakeJournal), POST /service-requests
+ * answers as soon as the request is journaled.  Reports served from a
+ * snapshot (see ReportSnapshots) carry its time in Last-Modified and its
+ * age in seconds in Age.
+ *
+ * Every request runs on its own thread from
+ * MechanicShopServer.newThreadPerTaskExecutor(), virtual threads on JDK
+ * 21+, so thousands of requests can be in flight while only the pool's
+ * connections talk to Postgres.  Reports are streamed: rows are fetched
+ * through a cursor and written as a chunked response as they arrive, so a
+ * large report needs neither a buffer the size of the result nor a
+ * platform thread per client.
+ *
+ * Errors are answered as {"error": message} with status 400 for bad input,
+ * 409 for constraint violations and 503 when no connection was available.
+ * Like the terminal server, the API listens on the loopback interface only.
+ */
+public class MechanicShopHttpServer {
+	public static final int BACKLOG = 1024;
+	public static final int DEFAULT_LIMIT = 20;
+
+	private final MechanicShop _esql;
+	private final int _port;
+
+	public MechanicShopHttpServer(MechanicShop esql, int port) {
+		this._esql = esql;
+		this._port = port;
+	}
+
+	/**
+	 * Method to serve requests until the process is stopped.
+	 *
+	 * @throws java.io.IOException when the listen socket could not be opened
+	 */
+	public void serve() throws IOException, InterruptedException {
+		start();
+		new CountDownLatch(1).await();
+	}//end serve
+
+	/**
+	 * Method to start serving in the background.  Requests are handled on
+	 * their own threads until the returned server is stopped.
+	 *
+	 * @return the running server
+	 * @throws java.io.IOException when the listen socket could not be opened
+	 */
+	public HttpServer start() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), this._port), BACKLOG);
+		server.setExecutor(MechanicShopServer.newThreadPerTaskExecutor());
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) {
+				MechanicShopHttpServer.this.handle(exchange);
+			}
+		});
+		server.start();
+		System.out.println("Serving the MechanicShop API on http:/" + server.getAddress());
+		return server;
+	}//end start
+
+	private void handle(HttpExchange exchange) {
+		try{
+			String method = exchange.getRequestMethod();
+			String path = exchange.getRequestURI().getPath();
+			if (method.equals("POST")) create(exchange, path, Json.parseObject(body(exchange)));
+			else if (method.equals("GET")) query(exchange, path, parameters(exchange.getRequestURI().getRawQuery()));
+			else send(exchange, 405, error("method not allowed"));
+		}catch (IllegalArgumentException e){
+			send(exchange, 400, error(e.getMessage()));
+		}catch (SQLException e){
+			String state = e.getSQLState() == null ? "" : e.getSQLState();
+			// 22: data exceptions such as a value too long for its column
+			int status = state.startsWith("23") ? 409 : state.startsWith("22") ? 400 : state.startsWith("08") ? 503 : 500;
+			send(exchange, status, error(e.getMessage()));
+		}catch (Exception e){
+			send(exchange, 500, error(e.getMessage()));
+		}finally{
+			exchange.close();
+		}//end try
+	}//end handle
+
+	/**
+	 * Method to run one of the five operations that add a row.
+	 */
+	private void create(HttpExchange exchange, String path, Map<String, Object> in) throws Exception {
+		String key;
+		int id;
+		switch (path){
+			case "/customers":
+				key = "id";
+				id = this._esql.addCustomer(string(in, "fname", 32), string(in, "lname", 32), string(in, "phone", 13), string(in, "address", 256));
+				break;
+			case "/mechanics":
+				key = "id";
+				id = this._esql.addMechanic(string(in, "fname", 32), string(in, "lname", 32), integer(in, "experience"));
+				break;
+			case "/cars":
+				key = "ownershipId";
+				id = this._esql.addCar(string(in, "vin", 16).toUpperCase(), string(in, "make", 32), string(in, "model", 32), integer(in, "year"), integer(in, "customerId"));
+				break;
+			case "/service-requests":
+				key = "rid";
+				id = this._esql.intakeServiceRequest(integer(in, "customerId"), string(in, "vin", 16), integer(in, "odometer"), string(in, "complaint"));
+				break;
+			case "/closed-requests":
+				key = "wid";
+				id = this._esql.closeServiceRequest(integer(in, "rid"), integer(in, "mid"), java.sql.Date.valueOf(string(in, "date")), string(in, "comment"), integer(in, "bill"));
+				break;
+			default:
+				send(exchange, 404, error("no such resource"));
+				return;
+		}//end switch
+		send(exchange, 201, "{" + Json.quote(key) + ":" + id + "}\n");
+	}//end create
+
+	/**
+	 * Method to run one of the reports or a customer search.
+	 */
+	private void query(HttpExchange exchange, String path, Map<String, String> params) throws Exception {
+		if (path.equals("/metrics")){
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, 0);
+			Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8);
+			this._esql.metrics().writePrometheus(out);
+			return;
+		}//end if
+		if (path.equals("/customers")){
+			int limit = integer(params, "limit", DEFAULT_LIMIT);
+			List<List<String>> found;
+			if (params.containsKey("name")) found = this._esql.searchCustomersByName(params.get("name"), limit);
+			else if (params.containsKey("phone")) found = this._esql.searchCustomersByPhone(params.get("phone"), limit);
+			else if (params.containsKey("similar")) found = this._esql.searchCustomersFuzzy(params.get("similar"), limit);
+			else throw new IllegalArgumentException("name, phone or similar is required");
+			StringBuilder out = new StringBuilder("[");
+			for (int i = 0; i < found.size(); ++i){
+				List<String> c = found.get(i);
+				out.append(i == 0 ? "\n{" : ",\n{").append("\"id\":").append(c.get(0).trim());
+				Json.quote(out.append(",\"fname\":"), c.get(1).trim());
+				Json.quote(out.append(",\"lname\":"), c.get(2).trim()).append('}');
+			}//end for
+			send(exchange, 200, out.append("\n]\n").toString());
+			return;
+		}//end if
+
+		// validate before the status line goes out; the rows follow as they are fetched
+		int a, b = 0;
+		switch (path){
+			case "/reports/bills": a = integer(params, "below", 100); break;
+			case "/reports/customers-with-cars": a = integer(params, "more-than", 20); break;
+			case "/reports/old-cars": a = integer(params, "before", 1995); b = integer(params, "miles", 50000); break;
+			case "/reports/most-serviced-cars": a = integer(params, "k", 10); break;
+			case "/reports/customers-by-total-bill": a = 0; break;
+			default:
+				send(exchange, 404, error("no such resource"));
+				return;
+		}//end switch
+		java.sql.Date from = null, to = null;
+		if (params.containsKey("from") || params.containsKey("to")){
+			if (!params.containsKey("from") || !params.containsKey("to"))
+				throw new IllegalArgumentException("from and to go together");
+			if (!path.equals("/reports/bills") && !path.equals("/reports/most-serviced-cars") && !path.equals("/reports/customers-by-total-bill"))
+				throw new IllegalArgumentException("this report has no period");
+			from = java.sql.Date.valueOf(params.get("from").trim());
+			to = java.sql.Date.valueOf(params.get("to").trim());
+			if (!from.before(to))
+				throw new IllegalArgumentException("from must be before to");
+		}else if (params.containsKey("page-size") || params.containsKey("page")){
+			page(exchange, path, params, a, b);
+			return;
+		}//end if
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		Long snapshot = null;
+		if (from == null){
+			String report = path.substring("/reports/".length());
+			snapshot = path.equals("/reports/old-cars") ? this._esql.snapshotTime(report, a, b) : this._esql.snapshotTime(report, a);
+		}//end if
+		if (snapshot != null){
+			// served from a snapshot, see ReportSnapshots
+			exchange.getResponseHeaders().set("Last-Modified", java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME.format(java.time.Instant.ofEpochMilli(snapshot).atZone(java.time.ZoneOffset.UTC)));
+			exchange.getResponseHeaders().set("Age", Long.toString(Math.max(0, System.currentTimeMillis() - snapshot) / 1000));
+		}//end if
+		exchange.sendResponseHeaders(200, 0);
+		PrintStream out = new PrintStream(exchange.getResponseBody(), false, "UTF-8");
+		MechanicShop session = this._esql.newJsonSession(out);
+		if (from != null){
+			switch (path){
+				case "/reports/bills": session.listBillsLessThanBetween(a, from, to); break;
+				case "/reports/most-serviced-cars": session.listKCarsWithTheMostServicesBetween(a, from, to); break;
+				default: session.listCustomersByTotalBillBetween(from, to); break;
+			}//end switch
+			out.flush();
+			return;
+		}//end if
+		switch (path){
+			case "/reports/bills": session.listCustomersWithBillLessThan(a); break;
+			case "/reports/customers-with-cars": session.listCustomersWithMoreCarsThan(a); break;
+			case "/reports/old-cars": session.listCarsBeforeYearUnderMiles(a, b); break;
+			case "/reports/most-serviced-cars": session.listKCarsWithTheMostServices(a); break;
+			default: session.listCustomersByTotalBill(); break;
+		}//end switch
+		out.flush();
+	}//end query
+
+	/**
+	 * Method to answer one page of a paginated report.
+	 */
+	private void page(HttpExchange exchange, String path, Map<String, String> params, int a, int b) throws Exception {
+		int pageSize = integer(params, "page-size", ReportPage.DEFAULT_PAGE_SIZE);
+		String token = params.get("page");
+		if (token != null && token.isEmpty()) token = null;
+		ReportPage page;
+		switch (path){
+			case "/reports/bills": page = this._esql.pageBillsLessThan(a, token, pageSize); break;
+			case "/reports/old-cars": page = this._esql.pageCarsBeforeYearUnderMiles(a, b, token, pageSize); break;
+			case "/reports/customers-by-total-bill": page = this._esql.pageCustomersByTotalBill(token, pageSize); break;
+			default: throw new IllegalArgumentException("this report is not paginated");
+		}//end switch
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(body, false, "UTF-8");
+		out.print("{\"next\":" + Json.quote(page.next()) + ",\"rows\":");
+		out.flush();
+		new JsonResultPrinter(out).print(page.header(), page.width(), page.types(), page.rows());
+		out.print("}\n");
+		out.flush();
+		send(exchange, 200, body.toString("UTF-8"));
+	}//end page
+
+	private static String body(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n; (n = in.read(buffer)) > 0; )
+			body.write(buffer, 0, n);
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}//end body
+
+	private static Map<String, String> parameters(String query) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null) return params;
+		for (String pair : query.split("&")){
+			if (pair.isEmpty()) continue;
+			int eq = pair.indexOf('=');
+			String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+			params.put(name, eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+		}//end for
+		return params;
+	}//end parameters
+
+	private static String string(Map<String, Object> in, String name) {
+		Object value = in.get(name);
+		if (value == null) throw new IllegalArgumentException(name + " is required");
+		return value.toString();
+	}
+
+	/**
+	 * @param maxLength the length of the column the value goes to, see
+	 *        create.sql; longer values are rejected before they reach it
+	 */
+	private static String string(Map<String, Object> in, String name, int maxLength) {
+		String value = string(in, name);
+		if (value.length() > maxLength)
+			throw new IllegalArgumentException(name + " must be at most " + maxLength + " characters");
+		return value;
+	}
+
+	private static int integer(Map<String, Object> in, String name) {
+		Object value = in.get(name);
+		if (value instanceof Long){
+			if ((Long) value != ((Long) value).intValue()) throw new IllegalArgumentException(name + " is out of range");
+			return ((Long) value).intValue();
+		}//end if
+		if (value instanceof String) return Integer.parseInt(((String) value).trim());
+		throw new IllegalArgumentException(name + " must be an integer");
+	}
+
+	private static int integer(Map<String, String> params, String name, int otherwise) {
+		String value = params.get(name);
+		return value == null ? otherwise : Integer.parseInt(value.trim());
+	}
+
+	private static String error(String message) {
+		return "{\"error\":" + Json.quote(message == null ? "unknown error" : message) + "}\n";
+	}
+
+	/**
+	 * Method to send a whole JSON response.  Does nothing when the status
+	 * line was already sent, e.g. when a streamed report failed midway.
+	 */
+	private static void send(HttpExchange exchange, int status, String json) {
+		if (exchange.getResponseCode() != -1) return;
+		try{
+			byte[] body = json.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(status, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}catch (IOException e){
+			// the client went away.
+		}//end try
+	}//end send
+}//end MechanicShopHttpServer
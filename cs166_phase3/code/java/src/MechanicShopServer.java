@@ -0,0 +1,90 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class serves the MechanicShop menu to many terminals from one
+ * process.  Each terminal connects to a local socket (e.g. with
+ * "nc localhost <listen port>") and gets its own session; all sessions
+ * share the bounded connection pool of the MechanicShop they were opened
+ * from, so the number of Postgres backends no longer grows with the number
+ * of terminals.
+ */
+public class MechanicShopServer {
+	public static final int DEFAULT_POOL_SIZE = 8;
+
+	private final MechanicShop _esql;
+	private final int _port;
+
+	public MechanicShopServer(MechanicShop esql, int port) {
+		this._esql = esql;
+		this._port = port;
+	}
+
+	/**
+	 * Method to accept terminals on the loopback interface until the
+	 * process is stopped.  Every terminal runs on its own thread.
+	 *
+	 * @throws java.io.IOException when the listen socket could not be opened
+	 */
+	public void serve() throws IOException {
+		ExecutorService sessions = newThreadPerTaskExecutor();
+		ServerSocket server = new ServerSocket(this._port, 128, InetAddress.getLoopbackAddress());
+		System.out.println("Serving MechanicShop on " + server.getLocalSocketAddress());
+		try{
+			while (true){
+				final Socket socket = server.accept();
+				sessions.execute(new Runnable() {
+					public void run() {
+						session(socket);
+					}
+				});
+			}//end while
+		}finally{
+			server.close();
+			sessions.shutdown();
+		}//end try
+	}//end serve
+
+	/**
+	 * Method to run the menu for one terminal until it exits or hangs up.
+	 */
+	private void session(Socket socket) {
+		try{
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			PrintStream out = new PrintStream(socket.getOutputStream(), true, "UTF-8");
+			MechanicShop.runMenu(this._esql.newSession(in, out));
+			out.println("Bye !");
+		}catch (Exception e){
+			System.err.println("Session " + socket.getRemoteSocketAddress() + " ended: " + e.getMessage());
+		}finally{
+			try{
+				socket.close();
+			}catch (IOException e){
+				// ignored.
+			}//end try
+		}//end try
+	}//end session
+
+	/**
+	 * Method to create an executor that starts one thread per task.  On a
+	 * JDK with virtual threads (21+) these are virtual threads, so idle
+	 * terminals blocked on their socket cost no platform thread; on older
+	 * JDKs it falls back to a cached pool of platform threads.
+	 *
+	 * @return an executor with one thread per submitted task
+	 */
+	public static ExecutorService newThreadPerTaskExecutor() {
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch (ReflectiveOperationException e){
+			return Executors.newCachedThreadPool();
+		}//end try
+	}//end newThreadPerTaskExecutor
+}//end MechanicShopServer
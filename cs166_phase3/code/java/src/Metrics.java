@@ -0,0 +1,168 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects what every statement of a MechanicShop costs, per
+ * SQL template (the statement text with its ? placeholders): a latency
+ * histogram, the rows and bytes fetched or written and the failures.  It
+ * also holds the time callers waited for a pooled connection.
+ *
+ * Recording is cheap enough for every call: the statistics of a template
+ * are looked up in a ConcurrentHashMap without allocating, and are made of
+ * a LatencyHistogram and LongAdders, which are striped between threads.
+ *
+ * The numbers can be printed as a table (menu option 12), written in the
+ * Prometheus text format (GET /metrics of the HTTP API) or written to a
+ * file periodically (the mechanicshop.metricsFile system property).
+ */
+public class Metrics {
+	//quantiles reported for every histogram
+	static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	//how often the metrics file is rewritten
+	public static final long FILE_PERIOD_SECONDS = 10;
+
+	/**
+	 * Statistics of one SQL template.
+	 */
+	public static class StatementStats {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder rows = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder errors = new LongAdder();
+
+		/**
+		 * Method to record one execution.
+		 *
+		 * @param nanos how long it took, including fetching the result
+		 * @param rows rows fetched or written
+		 * @param bytes characters of the values fetched
+		 * @param failed true if it ended with an error
+		 */
+		public void record(long nanos, long rows, long bytes, boolean failed) {
+			this.latency.record(nanos);
+			if (rows > 0) this.rows.add(rows);
+			if (bytes > 0) this.bytes.add(bytes);
+			if (failed) this.errors.increment();
+		}//end record
+	}
+
+	private final ConcurrentHashMap<String, StatementStats> _statements = new ConcurrentHashMap<String, StatementStats>();
+	private final LatencyHistogram _poolWait = new LatencyHistogram();
+	private ScheduledExecutorService _writer = null;
+
+	/**
+	 * Method to get the statistics of a SQL template, creating them on
+	 * first use.
+	 */
+	public StatementStats statement(String sql) {
+		StatementStats stats = this._statements.get(sql);
+		if (stats != null) return stats;
+		return this._statements.computeIfAbsent(sql, k -> new StatementStats());
+	}//end statement
+
+	/**
+	 * Method to record how long a caller waited for a pooled connection.
+	 */
+	public void poolWait(long nanos) {
+		this._poolWait.record(nanos);
+	}
+
+	/**
+	 * Method to print one line per SQL template, the slowest in total first.
+	 */
+	public void print(PrintStream out) {
+		out.printf("%10s %10s %10s %10s %10s %10s %12s %6s  %s%n", "calls", "total ms", "p50 ms", "p99 ms", "p99.9 ms", "rows", "bytes", "errors", "statement");
+		// sort on a copy of the totals, they keep changing while we sort
+		List<Object[]> byTotal = new ArrayList<Object[]>();
+		for (Map.Entry<String, StatementStats> e : this._statements.entrySet())
+			byTotal.add(new Object[] { e.getValue().latency.sum(), e.getKey(), e.getValue() });
+		byTotal.sort((x, y) -> Long.compare((Long) y[0], (Long) x[0]));
+		for (Object[] e : byTotal){
+			String sql = (String) e[1];
+			StatementStats s = (StatementStats) e[2];
+			long[] counts = s.latency.snapshot();
+			out.printf("%10d %10.1f %10.3f %10.3f %10.3f %10d %12d %6d  %s%n", s.latency.count(), s.latency.sum() / 1e6,
+				LatencyHistogram.quantile(counts, 0.5) / 1e6, LatencyHistogram.quantile(counts, 0.99) / 1e6, LatencyHistogram.quantile(counts, 0.999) / 1e6,
+				s.rows.sum(), s.bytes.sum(), s.errors.sum(), sql);
+		}//end for
+		long[] wait = this._poolWait.snapshot();
+		out.printf("connection wait: %d waits, p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms%n", this._poolWait.count(),
+			LatencyHistogram.quantile(wait, 0.5) / 1e6, LatencyHistogram.quantile(wait, 0.99) / 1e6, LatencyHistogram.quantile(wait, 0.999) / 1e6);
+	}//end print
+
+	/**
+	 * Method to write every metric in the Prometheus text exposition format.
+	 */
+	public void writePrometheus(Writer out) throws IOException {
+		out.write("# TYPE mechanicshop_statement_seconds summary\n");
+		for (Map.Entry<String, StatementStats> e : this._statements.entrySet())
+			summary(out, "mechanicshop_statement_seconds", "sql=\"" + label(e.getKey()) + "\"", e.getValue().latency);
+		counter(out, "mechanicshop_statement_rows_total", "rows", "rows fetched or written");
+		counter(out, "mechanicshop_statement_bytes_total", "bytes", "characters of the values fetched");
+		counter(out, "mechanicshop_statement_errors_total", "errors", "statements that failed");
+		out.write("# TYPE mechanicshop_pool_wait_seconds summary\n");
+		summary(out, "mechanicshop_pool_wait_seconds", null, this._poolWait);
+		out.flush();
+	}//end writePrometheus
+
+	/**
+	 * Method to rewrite a file with the Prometheus text every
+	 * FILE_PERIOD_SECONDS, e.g. for node_exporter's textfile collector.  The
+	 * file is replaced atomically, so readers never see half of it.
+	 */
+	public synchronized void writePeriodically(final File file) {
+		if (this._writer != null) return;
+		this._writer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "metrics-writer");
+			t.setDaemon(true);
+			return t;
+		});
+		this._writer.scheduleAtFixedRate(() -> {
+			File tmp = new File(file.getPath() + ".tmp");
+			try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)){
+				writePrometheus(out);
+			}catch (IOException e){
+				return;
+			}//end try
+			tmp.renameTo(file);
+		}, FILE_PERIOD_SECONDS, FILE_PERIOD_SECONDS, TimeUnit.SECONDS);
+	}//end writePeriodically
+
+	private void counter(Writer out, String name, String field, String help) throws IOException {
+		out.write("# HELP " + name + " " + help + "\n# TYPE " + name + " counter\n");
+		for (Map.Entry<String, StatementStats> e : this._statements.entrySet()){
+			StatementStats s = e.getValue();
+			long value = field.equals("rows") ? s.rows.sum() : field.equals("bytes") ? s.bytes.sum() : s.errors.sum();
+			out.write(name + "{sql=\"" + label(e.getKey()) + "\"} " + value + "\n");
+		}//end for
+	}//end counter
+
+	private static void summary(Writer out, String name, String labels, LatencyHistogram h) throws IOException {
+		long[] counts = h.snapshot();
+		String prefix = labels == null ? "" : labels + ",";
+		for (double q : QUANTILES)
+			out.write(name + "{" + prefix + "quantile=\"" + q + "\"} " + LatencyHistogram.quantile(counts, q) / 1e9 + "\n");
+		String suffix = labels == null ? "" : "{" + labels + "}";
+		long count = 0;
+		for (long c : counts) count += c;
+		out.write(name + "_sum" + suffix + " " + h.sum() / 1e9 + "\n");
+		out.write(name + "_count" + suffix + " " + count + "\n");
+	}//end summary
+
+	private static String label(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}//end Metrics
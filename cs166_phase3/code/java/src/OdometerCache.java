@@ -0,0 +1,62 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class remembers the last odometer reading of recently serviced
+ * cars, so a new service request can be checked against it without a
+ * query.  When more than capacity cars are cached the least recently used
+ * one is dropped.
+ *
+ * A cached reading may be lower than the real one when another program
+ * inserted a request for the car.  It is therefore only used to reject a
+ * reading early; the insert itself re-checks against the table (see
+ * MechanicShop.insertServiceRequest()).
+ */
+public class OdometerCache {
+	public static final int DEFAULT_CAPACITY = Integer.getInteger("mechanicshop.odometerCacheSize", 100000);
+
+	//VIN -> last odometer reading, in access order
+	private final LinkedHashMap<String, Integer> _readings;
+
+	public OdometerCache(final int capacity) {
+		this._readings = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Method to look up the last reading of a car.
+	 *
+	 * @return the reading, null if the car is not cached
+	 */
+	public synchronized Integer get(String vin) {
+		return this._readings.get(vin);
+	}
+
+	/**
+	 * Method to record a reading of a car.  A reading lower than the cached
+	 * one is ignored, so concurrent updates keep the highest.
+	 */
+	public synchronized void update(String vin, int odometer) {
+		Integer last = this._readings.get(vin);
+		if (last == null || last < odometer)
+			this._readings.put(vin, odometer);
+	}//end update
+
+	/**
+	 * Method to forget a car, after its cached reading turned out stale.
+	 */
+	public synchronized void invalidate(String vin) {
+		this._readings.remove(vin);
+	}
+
+	/**
+	 * Method to forget every car, e.g. after the data was reloaded.
+	 */
+	public synchronized void clear() {
+		this._readings.clear();
+	}
+}//end OdometerCache
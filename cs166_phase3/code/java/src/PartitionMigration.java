@@ -0,0 +1,316 @@
+import java.io.PrintStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+/**
+ * This class turns Service_Request and Closed_Request into tables
+ * partitioned by month of their date, while the application keeps
+ * running, so reads bounded by date (see the *Between reports of
+ * MechanicShop) only scan the months they ask for, and old months can be
+ * vacuumed, archived or dropped one partition at a time.
+ *
+ * For each table it:
+ *
+ *	1. creates Service_Request_p, partitioned by RANGE (date), with one
+ *	   partition per month from the oldest row to MONTHS_AHEAD months from
+ *	   now and a DEFAULT partition for anything else;
+ *	2. mirrors every new row of the old table into it with a row trigger;
+ *	3. copies the existing rows in batches of batchSize, each in its own
+ *	   short transaction, in key order (rows already mirrored are skipped);
+ *	4. swaps the tables in one short transaction: the old one is renamed
+ *	   to Service_Request_unpartitioned and kept until dropped by hand.
+ *	   Its foreign keys are dropped in the same transaction, so the kept
+ *	   copy does not stop Customer, Car or Mechanic from being truncated
+ *	   (see BulkImport.truncate()); it is no longer written to anyway.
+ *
+ * A primary key of a partitioned table must contain the partition key, so
+ * the keys become (rid, date) and (wid, date), and the foreign key from
+ * Closed_Request.rid to Service_Request is dropped: Postgres cannot
+ * reference a partitioned table by rid alone.  rid and wid stay unique as
+ * they come from sequences.  Running the migration again on partitioned
+ * tables only adds the partitions of the months ahead, moving their rows
+ * out of the default partition.
+ */
+public class PartitionMigration {
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+	//months after the current one that get a partition in advance
+	public static final int MONTHS_AHEAD = 12;
+	//attempts at taking the locks of the swap before giving up
+	public static final int SWAP_ATTEMPTS = 10;
+
+	/**
+	 * One table to partition and what it needs.
+	 */
+	static class Table {
+		final String name;
+		final String key;
+		final String sequence;
+		//summary trigger and its function, see create.sql
+		final String trigger;
+		final String function;
+		//columns, keys and indexes of the partitioned table
+		final String definition;
+		final String[] indexes;
+
+		Table(String name, String key, String sequence, String trigger, String function, String definition, String... indexes) {
+			this.name = name;
+			this.key = key;
+			this.sequence = sequence;
+			this.trigger = trigger;
+			this.function = function;
+			this.definition = definition;
+			this.indexes = indexes;
+		}
+	}//end Table
+
+	static final Table[] TABLES = {
+		new Table("Service_Request", "rid", "service_request_rid_seq", "Service_Request_count", "car_service_count_add",
+			"LIKE Service_Request INCLUDING DEFAULTS INCLUDING CONSTRAINTS, PRIMARY KEY (rid, date), FOREIGN KEY (customer_id) REFERENCES Customer(id), FOREIGN KEY (car_vin) REFERENCES Car(vin)",
+			"Service_Request_part_in ON Service_Request_p (car_vin, odometer)"),
+		new Table("Closed_Request", "wid", "closed_request_wid_seq", "Closed_Request_bill", "customer_bill_add",
+			"LIKE Closed_Request INCLUDING DEFAULTS INCLUDING CONSTRAINTS, PRIMARY KEY (wid, date), FOREIGN KEY (mid) REFERENCES Mechanic(id)",
+			"CR_part_in ON Closed_Request_p (rid)", "Closed_Request_bill_part_in ON Closed_Request_p (bill, wid)"),
+	};
+
+	private final ConnectionPool _pool;
+	private final PrintStream _out;
+
+	public PartitionMigration(ConnectionPool pool, PrintStream out) {
+		this._pool = pool;
+		this._out = out;
+	}
+
+	/**
+	 * Method to partition both tables, or to add the partitions of the
+	 * months ahead if they already are.
+	 *
+	 * @param batchSize rows copied per transaction
+	 */
+	public void migrate(int batchSize) throws SQLException {
+		boolean partitioned = true;
+		for (Table table : TABLES)
+			partitioned &= isPartitioned(table.name);
+		if (partitioned){
+			for (Table table : TABLES)
+				createPartitions(table.name, table.name, LocalDate.now().withDayOfMonth(1));
+			this._out.println("Already partitioned; partitions added up to " + LocalDate.now().plusMonths(MONTHS_AHEAD).withDayOfMonth(1));
+			return;
+		}//end if
+		for (Table table : TABLES)
+			prepare(table);
+		for (Table table : TABLES)
+			copy(table, batchSize);
+		swap();
+		this._out.println("Service_Request and Closed_Request are partitioned by month; the old tables are kept as *_unpartitioned");
+	}//end migrate
+
+	/**
+	 * Method to create the partitioned copy of a table and start mirroring
+	 * new rows into it.  Creating the trigger waits for the transactions
+	 * writing to the table, so every row committed before it is visible to
+	 * copy() and every row committed after it is mirrored.
+	 */
+	private void prepare(Table table) throws SQLException {
+		LocalDate oldest = LocalDate.now();
+		for (String[] row : query("SELECT MIN(date) FROM " + table.name))
+			if (row[0] != null) oldest = LocalDate.parse(row[0]);
+		String copy = table.name + "_p";
+		execute("CREATE TABLE IF NOT EXISTS " + copy + " (" + table.definition + ") PARTITION BY RANGE (date)");
+		createPartitions(copy, table.name, oldest.withDayOfMonth(1));
+		for (String index : table.indexes)
+			execute("CREATE INDEX IF NOT EXISTS " + index);
+		execute("CREATE OR REPLACE FUNCTION " + mirror(table) + "() RETURNS TRIGGER AS $$ BEGIN INSERT INTO " + copy + " SELECT NEW.* ON CONFLICT DO NOTHING; RETURN NULL; END; $$ LANGUAGE plpgsql");
+		execute("DROP TRIGGER IF EXISTS " + mirror(table) + " ON " + table.name);
+		execute("CREATE TRIGGER " + mirror(table) + " AFTER INSERT ON " + table.name + " FOR EACH ROW EXECUTE PROCEDURE " + mirror(table) + "()");
+		this._out.println(table.name + ": created " + copy + " from " + oldest.withDayOfMonth(1) + ", mirroring new rows");
+	}//end prepare
+
+	/**
+	 * Method to create the monthly partitions of a table from a month to
+	 * MONTHS_AHEAD months from now, and its default partition.  A month
+	 * whose rows are in the default partition so far is created by
+	 * createFromDefault().
+	 *
+	 * @param parent the partitioned table
+	 * @param base the name the partitions are named after
+	 */
+	private void createPartitions(String parent, String base, LocalDate from) throws SQLException {
+		LocalDate last = LocalDate.now().plusMonths(MONTHS_AHEAD).withDayOfMonth(1);
+		for (LocalDate month = from; !month.isAfter(last); month = month.plusMonths(1)){
+			String name = String.format("%s_y%04dm%02d", base, month.getYear(), month.getMonthValue());
+			String[] state = query("SELECT (to_regclass('" + name + "') IS NULL)::int, (to_regclass('" + base + "_default') IS NOT NULL)::int").get(0);
+			if (state[0].equals("0")) continue;
+			if (state[1].equals("1") && !query("SELECT 1 FROM " + base + "_default WHERE " + range(month) + " LIMIT 1").isEmpty())
+				createFromDefault(parent, base, name, month);
+			else
+				execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + parent + " FOR VALUES FROM ('" + month + "') TO ('" + month.plusMonths(1) + "')");
+		}//end for
+		execute("CREATE TABLE IF NOT EXISTS " + base + "_default PARTITION OF " + parent + " DEFAULT");
+	}//end createPartitions
+
+	/**
+	 * Method to create the partition of a month that has rows in the
+	 * default partition, which Postgres refuses while they are there: in
+	 * one transaction the default partition is detached, the month is
+	 * created, its rows are moved into it and the default partition is
+	 * attached again.  Like swap(), it waits at most a few seconds for the
+	 * locks.
+	 */
+	private void createFromDefault(String parent, String base, String name, LocalDate month) throws SQLException {
+		PooledConnection conn = this._pool.acquire();
+		try (Statement stmt = conn.connection().createStatement()){
+			conn.connection().setAutoCommit(false);
+			stmt.execute("SET LOCAL lock_timeout = '5s'");
+			stmt.execute("ALTER TABLE " + parent + " DETACH PARTITION " + base + "_default");
+			stmt.execute("CREATE TABLE " + name + " PARTITION OF " + parent + " FOR VALUES FROM ('" + month + "') TO ('" + month.plusMonths(1) + "')");
+			// straight into the partition, so the summary triggers of the parent do not count the rows again
+			int rows = stmt.executeUpdate("INSERT INTO " + name + " SELECT * FROM " + base + "_default WHERE " + range(month));
+			stmt.execute("DELETE FROM " + base + "_default WHERE " + range(month));
+			stmt.execute("ALTER TABLE " + parent + " ATTACH PARTITION " + base + "_default DEFAULT");
+			conn.connection().commit();
+			this._out.println(name + ": created, " + rows + " rows moved out of " + base + "_default");
+		}catch (SQLException e){
+			conn.failed(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}//end createFromDefault
+
+	private static String range(LocalDate month) {
+		return "date >= '" + month + "' AND date < '" + month.plusMonths(1) + "'";
+	}
+
+	/**
+	 * Method to copy the rows of a table into its partitioned copy, in
+	 * key order, batchSize rows per transaction.
+	 */
+	private void copy(Table table, int batchSize) throws SQLException {
+		String sql = "WITH batch AS (SELECT * FROM " + table.name + " WHERE " + table.key + " > ? ORDER BY " + table.key + " LIMIT ?), "
+			+ "moved AS (INSERT INTO " + table.name + "_p SELECT * FROM batch ON CONFLICT DO NOTHING) "
+			+ "SELECT MAX(" + table.key + "), COUNT(*) FROM batch";
+		long after = Integer.MIN_VALUE;
+		long copied = 0;
+		long start = System.nanoTime();
+		PooledConnection conn = this._pool.acquire();
+		try{
+			PreparedStatement stmt = conn.statements().prepare(sql);
+			while (true){
+				stmt.setLong(1, after);
+				stmt.setInt(2, batchSize);
+				ResultSet rs = stmt.executeQuery();
+				rs.next();
+				long last = rs.getLong(1);
+				int rows = rs.getInt(2);
+				rs.close();
+				if (rows == 0) break;
+				after = last;
+				copied += rows;
+				this._out.printf("%s: %d rows copied, %.0f rows/s%n", table.name, copied, copied / Math.max((System.nanoTime() - start) / 1e9, 1e-9));
+			}//end while
+		}catch (SQLException e){
+			conn.statements().evict(sql);
+			conn.failed(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}//end copy
+
+	/**
+	 * Method to put the partitioned tables in place of the old ones, in one
+	 * transaction.  It waits at most a few seconds for the locks and tries
+	 * again, so it never stalls the application for long.
+	 */
+	private void swap() throws SQLException {
+		for (int attempt = 1; ; ++attempt){
+			PooledConnection conn = this._pool.acquire();
+			try (Statement stmt = conn.connection().createStatement()){
+				conn.connection().setAutoCommit(false);
+				stmt.execute("SET LOCAL lock_timeout = '5s'");
+				stmt.execute("LOCK TABLE Service_Request, Closed_Request IN ACCESS EXCLUSIVE MODE");
+				// report snapshots would keep reading the old tables; they are created again on their next refresh
+				for (Object[] view : ReportSnapshots.VIEWS)
+					stmt.execute("DROP MATERIALIZED VIEW IF EXISTS " + view[1]);
+				for (Table table : TABLES){
+					stmt.execute("DROP TRIGGER " + mirror(table) + " ON " + table.name);
+					stmt.execute("DROP TRIGGER " + table.trigger + " ON " + table.name);
+					stmt.execute("ALTER TABLE " + table.name + " RENAME TO " + table.name + "_unpartitioned");
+					stmt.execute("ALTER TABLE " + table.name + "_p RENAME TO " + table.name);
+					dropForeignKeys(stmt, table.name + "_unpartitioned");
+					// or dropping the old table would drop the sequence with it
+					stmt.execute("ALTER SEQUENCE " + table.sequence + " OWNED BY " + table.name + "." + table.key);
+					stmt.execute("CREATE TRIGGER " + table.trigger + " AFTER INSERT ON " + table.name + " REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE " + table.function + "()");
+					stmt.execute("DROP FUNCTION " + mirror(table) + "()");
+				}//end for
+				conn.connection().commit();
+				return;
+			}catch (SQLException e){
+				conn.failed(e);
+				// 55P03: lock_timeout expired
+				if (!"55P03".equals(e.getSQLState()) || attempt == SWAP_ATTEMPTS) throw e;
+				this._out.println("Tables busy, trying the swap again");
+			}finally{
+				this._pool.release(conn);
+			}//end try
+		}//end for
+	}//end swap
+
+	/**
+	 * Method to drop every foreign key of a table.
+	 */
+	private static void dropForeignKeys(Statement stmt, String table) throws SQLException {
+		java.util.List<String> keys = new java.util.ArrayList<String>();
+		ResultSet rs = stmt.executeQuery("SELECT conname FROM pg_constraint WHERE conrelid = to_regclass('" + table + "') AND contype = 'f'");
+		while (rs.next()) keys.add(rs.getString(1));
+		rs.close();
+		for (String key : keys)
+			stmt.execute("ALTER TABLE " + table + " DROP CONSTRAINT \"" + key + "\"");
+	}//end dropForeignKeys
+
+	private static String mirror(Table table) {
+		return table.name.toLowerCase() + "_mirror";
+	}
+
+	private boolean isPartitioned(String table) throws SQLException {
+		for (String[] row : query("SELECT relkind FROM pg_class WHERE oid = to_regclass('" + table + "')"))
+			return "p".equals(row[0]);
+		return false;
+	}//end isPartitioned
+
+	private void execute(String sql) throws SQLException {
+		PooledConnection conn = this._pool.acquire();
+		try (Statement stmt = conn.connection().createStatement()){
+			stmt.execute(sql);
+		}catch (SQLException e){
+			conn.failed(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}//end execute
+
+	private java.util.List<String[]> query(String sql) throws SQLException {
+		java.util.List<String[]> rows = new java.util.ArrayList<String[]>();
+		PooledConnection conn = this._pool.acquire();
+		try (Statement stmt = conn.connection().createStatement()){
+			ResultSet rs = stmt.executeQuery(sql);
+			int numCol = rs.getMetaData().getColumnCount();
+			while (rs.next()){
+				String[] row = new String[numCol];
+				for (int i = 0; i < numCol; ++i) row[i] = rs.getString(i + 1);
+				rows.add(row);
+			}//end while
+			rs.close();
+		}catch (SQLException e){
+			conn.failed(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+		return rows;
+	}//end query
+}//end PartitionMigration
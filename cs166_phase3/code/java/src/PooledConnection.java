@@ -0,0 +1,95 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * This class is one physical connection handed out by a ConnectionPool,
+ * together with the prepared statements cached on it.  A pooled connection
+ * is used by one thread at a time, between ConnectionPool.acquire() and
+ * ConnectionPool.release().
+ */
+public class PooledConnection {
+	//reference to physical database connection
+	private final Connection _connection;
+	//prepared statements of _connection, see StatementCache
+	private final StatementCache _statements;
+	//when the connection was last given back to the pool
+	private long _lastUsed = System.currentTimeMillis();
+	//set once the connection failed at the network/protocol level
+	private boolean _broken = false;
+
+	public PooledConnection(Connection connection) {
+		this._connection = connection;
+		this._statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+	}
+
+	public Connection connection() {
+		return this._connection;
+	}
+
+	public StatementCache statements() {
+		return this._statements;
+	}
+
+	/**
+	 * Method to record a failed statement.  Errors of SQLSTATE class 08
+	 * (connection exception) or 57P (operator intervention) mean the
+	 * connection is gone and must not be returned to the pool.
+	 *
+	 * @param e the error the statement failed with
+	 */
+	public void failed(SQLException e) {
+		String state = e.getSQLState();
+		if (state == null || state.startsWith("08") || state.startsWith("57P"))
+			this._broken = true;
+	}//end failed
+
+	/**
+	 * Method to tell whether the connection can still be used.  A
+	 * connection idle for longer than idleMillis is pinged first.
+	 *
+	 * @param idleMillis idle time after which the connection is validated
+	 * @return true if the connection can be handed out
+	 */
+	public boolean isHealthy(long idleMillis) {
+		if (this._broken) return false;
+		try{
+			if (this._connection.isClosed()) return false;
+			if (System.currentTimeMillis() - this._lastUsed < idleMillis) return true;
+			return this._connection.isValid(2);
+		}catch (SQLException e){
+			return false;
+		}//end try
+	}//end isHealthy
+
+	/**
+	 * Method to put the connection back into autocommit mode, rolling back
+	 * whatever a caller left open, before it is handed out again.
+	 *
+	 * @return false if the connection could not be reset and must be dropped
+	 */
+	boolean reset() {
+		if (this._broken) return false;
+		try{
+			if (!this._connection.getAutoCommit()){
+				this._connection.rollback();
+				this._connection.setAutoCommit(true);
+			}//end if
+			this._lastUsed = System.currentTimeMillis();
+			return true;
+		}catch (SQLException e){
+			return false;
+		}//end try
+	}//end reset
+
+	/**
+	 * Method to close the statements and the physical connection.
+	 */
+	public void close() {
+		this._statements.close();
+		try{
+			this._connection.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}//end close
+}//end PooledConnection
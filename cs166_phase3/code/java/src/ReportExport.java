@@ -0,0 +1,168 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.zip.GZIPOutputStream;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyOut;
+
+/**
+ * This class exports a report or a whole table to a local CSV file (with
+ * a header line, as spreadsheets read it) using COPY ... TO STDOUT, so the
+ * server formats the rows and the client only moves bytes:
+ *
+ *	bills [bill]                     report 6, Closed_Request.bill < bill (100)
+ *	customers-with-cars [cars]       report 7 (20)
+ *	old-cars [year] [miles]          report 8 (1995, 50000)
+ *	most-serviced-cars [k]           report 9 (10)
+ *	customers-by-total-bill          report 10
+ *	Customer, Mechanic, Car, Owns, Service_Request, Closed_Request
+ *
+ * The driver hands over every row as a byte array on the heap; the rows
+ * are gathered in a large direct buffer that is written to a FileChannel
+ * whenever it is full, so the disk sees few, large writes instead of one
+ * per row, and the channel needs no temporary copy of its own.  A file name
+ * ending in .gz is compressed on the way.  The file is written under a
+ * temporary name and renamed when complete, so a failed export never
+ * leaves a truncated file behind.
+ */
+public class ReportExport {
+	public static final int BUFFER_SIZE = 4 << 20;
+
+	//report name, query, default values of its ? placeholders
+	static final Object[][] REPORTS = {
+		{ "bills", MechanicShop.QUERY_BILL_LESS_THAN, new int[] { 100 } },
+		{ "customers-with-cars", MechanicShop.QUERY_CUSTOMERS_WITH_MORE_CARS_THAN, new int[] { 20 } },
+		{ "old-cars", MechanicShop.QUERY_CARS_BEFORE_YEAR_UNDER_MILES, new int[] { 1995, 50000 } },
+		{ "most-serviced-cars", MechanicShop.QUERY_K_CARS_WITH_MOST_SERVICES, new int[] { 10 } },
+		{ "customers-by-total-bill", MechanicShop.QUERY_CUSTOMERS_BY_TOTAL_BILL, new int[0] },
+	};
+
+	private final ConnectionPool _pool;
+	private final PrintStream _out;
+
+	public ReportExport(ConnectionPool pool, PrintStream out) {
+		this._pool = pool;
+		this._out = out;
+	}
+
+	/**
+	 * Method to export a report or a table.
+	 *
+	 * @param source a report name or a table name (see above)
+	 * @param file the CSV file, gzipped if its name ends in .gz
+	 * @param args values for the report's parameters; missing ones take
+	 *        their default
+	 * @return the number of rows exported
+	 * @throws java.lang.IllegalArgumentException for an unknown source
+	 */
+	public long export(String source, File file, int... args) throws SQLException, IOException {
+		String sql = copySql(source, args);
+		long start = System.nanoTime();
+		long rows = copyOut(sql, file);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		this._out.printf("%s: %d rows, %.1f MB in %.1f s (%.0f MB/s) to %s%n", source, rows, file.length() / 1e6, seconds, file.length() / 1e6 / Math.max(seconds, 1e-9), file);
+		return rows;
+	}//end export
+
+	/**
+	 * Method to build the COPY statement of a source.  Report parameters
+	 * are integers and are written into the query, since COPY takes no
+	 * bind parameters.
+	 */
+	static String copySql(String source, int[] args) {
+		for (Object[] report : REPORTS){
+			if (!report[0].equals(source)) continue;
+			int[] values = ((int[]) report[2]).clone();
+			if (args.length > values.length)
+				throw new IllegalArgumentException(source + " takes at most " + values.length + " values");
+			System.arraycopy(args, 0, values, 0, args.length);
+			String query = ((String) report[1]).trim();
+			if (query.endsWith(";")) query = query.substring(0, query.length() - 1);
+			StringBuilder sql = new StringBuilder("COPY (");
+			int next = 0;
+			for (int i = 0; i < query.length(); ++i){
+				char c = query.charAt(i);
+				if (c == '?') sql.append(values[next++]);
+				else sql.append(c);
+			}//end for
+			return sql.append(") TO STDOUT WITH (FORMAT csv, HEADER)").toString();
+		}//end for
+		for (BulkImport.Table[] level : BulkImport.LEVELS){
+			for (BulkImport.Table table : level){
+				if (table.name.equalsIgnoreCase(source)){
+					if (args.length > 0) throw new IllegalArgumentException("tables take no values");
+					// a query, since COPY cannot read a partitioned table (see PartitionMigration)
+					return "COPY (SELECT " + table.columns + " FROM " + table.name + ") TO STDOUT WITH (FORMAT csv, HEADER)";
+				}//end if
+			}//end for
+		}//end for
+		throw new IllegalArgumentException("unknown report or table " + source);
+	}//end copySql
+
+	/**
+	 * Method to run a COPY TO STDOUT into a file.
+	 *
+	 * @return the number of rows copied
+	 */
+	private long copyOut(String sql, File file) throws SQLException, IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		PooledConnection conn = this._pool.acquire();
+		long start = System.nanoTime();
+		long rows = -1;
+		long bytes = 0;
+		try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			WritableByteChannel target = file.getName().endsWith(".gz")
+				? Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16))
+				: channel;
+			CopyOut copy = conn.connection().unwrap(PGConnection.class).getCopyAPI().copyOut(sql);
+			try{
+				ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+				byte[] row;
+				while ((row = copy.readFromCopy()) != null){
+					bytes += row.length;
+					if (row.length > buffer.remaining()){
+						write(target, buffer);
+						if (row.length > buffer.capacity()){
+							target.write(ByteBuffer.wrap(row));
+							continue;
+						}//end if
+					}//end if
+					buffer.put(row);
+				}//end while
+				write(target, buffer);
+				rows = copy.getHandledRowCount();
+			}catch (SQLException | IOException | RuntimeException e){
+				if (copy.isActive()) copy.cancelCopy();
+				throw e;
+			}//end try
+			// finishes the gzip trailer; closing the channel twice is harmless
+			target.close();
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return rows;
+		}catch (SQLException e){
+			conn.failed(e);
+			throw e;
+		}finally{
+			tmp.delete();
+			this._pool.release(conn);
+			this._pool.metrics().statement(sql).record(System.nanoTime() - start, rows, bytes, rows < 0);
+		}//end try
+	}//end copyOut
+
+	//writes what the buffer holds and empties it
+	private static void write(WritableByteChannel target, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			target.write(buffer);
+		buffer.clear();
+	}
+}//end ReportExport
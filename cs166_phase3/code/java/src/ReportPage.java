@@ -0,0 +1,123 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * This class is one page of a paginated report (see MechanicShop.pageBills
+ * and the other page methods).  Pages are found by keyset pagination: the
+ * report is ordered on a unique sort key, and the next page starts after
+ * the key of the last row of this one, which the database seeks to in its
+ * index.  Every page therefore costs the same however deep it is, unlike
+ * OFFSET, which reads and discards all the rows before the page.
+ *
+ * The key of the last row travels as an opaque page token, so a client
+ * can ask for the next page in a later request, from another session or
+ * after a restart.
+ */
+public class ReportPage {
+	public static final int DEFAULT_PAGE_SIZE = 100;
+	public static final int MAX_PAGE_SIZE = 10000;
+	//separates the fields of a token, never part of a key value
+	private static final char SEPARATOR = '\u001f';
+
+	private final String[] _header;
+	private final int[] _width;
+	private final int[] _types;
+	private final List<String[]> _rows;
+	private final String _next;
+
+	ReportPage(String[] header, int[] width, int[] types, List<String[]> rows, String next) {
+		this._header = header;
+		this._width = width;
+		this._types = types;
+		this._rows = rows;
+		this._next = next;
+	}
+
+	/**
+	 * @return the column names
+	 */
+	public String[] header() {
+		return this._header;
+	}
+
+	/**
+	 * @return the display width of each column, as ResultPrinter sizes them
+	 */
+	public int[] width() {
+		return this._width;
+	}
+
+	/**
+	 * @return the java.sql.Types of each column
+	 */
+	public int[] types() {
+		return this._types;
+	}
+
+	/**
+	 * @return the rows of this page, one value per column
+	 */
+	public List<String[]> rows() {
+		return this._rows;
+	}
+
+	/**
+	 * @return the token of the next page, null when this is the last page
+	 */
+	public String next() {
+		return this._next;
+	}
+
+	/**
+	 * Method to check a page size asked for by a user.
+	 *
+	 * @throws java.lang.IllegalArgumentException when it is out of range
+	 */
+	public static int pageSize(int pageSize) {
+		if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE)
+			throw new IllegalArgumentException("page size must be between 1 and " + MAX_PAGE_SIZE);
+		return pageSize;
+	}//end pageSize
+
+	/**
+	 * Method to encode the sort key of a row as a page token.
+	 *
+	 * @param report the report the token belongs to
+	 * @param key the values of the sort key columns, in order
+	 */
+	static String token(String report, String[] key) {
+		StringBuilder token = new StringBuilder(report);
+		for (String value : key)
+			token.append(SEPARATOR).append(value);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+	}//end token
+
+	/**
+	 * Method to decode a page token.
+	 *
+	 * @param report the report asked for
+	 * @param token a token made by token() for that report
+	 * @param columns the number of sort key columns
+	 * @return the values of the sort key columns, in order
+	 * @throws java.lang.IllegalArgumentException when the token is not one
+	 *         of this report
+	 */
+	static String[] key(String report, String token, int columns) {
+		String text;
+		try{
+			text = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+		}catch (IllegalArgumentException e){
+			throw new IllegalArgumentException("invalid page token");
+		}//end try
+		List<String> fields = new ArrayList<String>();
+		int start = 0;
+		for (int end; (end = text.indexOf(SEPARATOR, start)) >= 0; start = end + 1)
+			fields.add(text.substring(start, end));
+		fields.add(text.substring(start));
+		if (fields.size() != columns + 1 || !fields.get(0).equals(report))
+			throw new IllegalArgumentException("invalid page token");
+		return fields.subList(1, fields.size()).toArray(new String[columns]);
+	}//end key
+}//end ReportPage
@@ -0,0 +1,212 @@
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class keeps the reports 6 to 9 of the menu, with the menu's
+ * parameters, as materialized views, so their scans run once per refresh
+ * instead of once per viewer.  MechanicShop serves a report from its view
+ * when it is asked for with the same parameters (any k up to TOP_CARS for
+ * report 9), and prints how old the snapshot is; the HTTP API sends the
+ * same as headers.  Other parameters still run the live query.  Report
+ * 10 always runs live: it reads Customer_Bill, which a trigger keeps
+ * current, through its index on total, so a snapshot would only make it
+ * stale.
+ *
+ * The views are created when missing and refreshed in the background
+ * every mechanicshop.snapshotRefreshSeconds seconds, and sooner once
+ * mechanicshop.snapshotRefreshWrites rows were inserted.  Each view has a
+ * unique index, so REFRESH MATERIALIZED VIEW CONCURRENTLY applies only
+ * the differences and readers are never blocked by a refresh.
+ */
+public class ReportSnapshots {
+	public static final long DEFAULT_REFRESH_SECONDS = 60;
+	public static final long DEFAULT_REFRESH_WRITES = 1000;
+	//report 9 is served from the snapshot for any k up to this
+	public static final int TOP_CARS = 100;
+
+	//report name (as in ReportExport), view, definition, unique key, query serving the
+	//report, parameters the view was made with
+	static final Object[][] VIEWS = {
+		{ "bills", "Bills_Snapshot",
+			"SELECT wid, date, comment, bill FROM Closed_Request WHERE bill < 100", "wid",
+			"SELECT date, comment, bill FROM Bills_Snapshot;", new int[] { 100 } },
+		{ "customers-with-cars", "Customers_With_Cars_Snapshot",
+			"SELECT id, fname, lname FROM Customer, (SELECT customer_id FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > 20) AS O WHERE O.customer_id = id", "id",
+			"SELECT fname, lname FROM Customers_With_Cars_Snapshot;", new int[] { 20 } },
+		{ "old-cars", "Old_Cars_Snapshot",
+			"SELECT DISTINCT make, model, year FROM Car AS C, Service_Request AS S WHERE year < 1995 AND S.car_vin = C.vin AND S.odometer < 50000", "make, model, year",
+			"SELECT make, model, year FROM Old_Cars_Snapshot;", new int[] { 1995, 50000 } },
+		{ "most-serviced-cars", "Most_Serviced_Cars_Snapshot",
+			"SELECT C.vin, make, model, S.requests AS creq FROM Car_Service_Count AS S, Car AS C WHERE C.vin = S.car_vin ORDER BY S.requests DESC LIMIT " + TOP_CARS, "vin",
+			"SELECT make, model, creq FROM Most_Serviced_Cars_Snapshot ORDER BY creq DESC LIMIT ?;", new int[] { TOP_CARS } },
+	};
+
+	private final ConnectionPool _pool;
+	private final PrintStream _log;
+	private final long _refreshWrites;
+	private final ScheduledExecutorService _refresher;
+	//per view when its current snapshot was taken, 0 while it has none
+	private final AtomicLongArray _refreshed = new AtomicLongArray(VIEWS.length);
+	//rows inserted since the last refresh started
+	private final AtomicLong _writes = new AtomicLong();
+	private final AtomicBoolean _refreshQueued = new AtomicBoolean();
+
+	/**
+	 * Method to start the snapshots configured by the system properties.
+	 * They are off unless mechanicshop.snapshotRefreshSeconds or
+	 * mechanicshop.snapshotRefreshWrites is set.
+	 *
+	 * @return the snapshots, null when off
+	 */
+	public static ReportSnapshots fromProperties(ConnectionPool pool) {
+		if (System.getProperty("mechanicshop.snapshotRefreshSeconds") == null && System.getProperty("mechanicshop.snapshotRefreshWrites") == null)
+			return null;
+		return new ReportSnapshots(pool, Long.getLong("mechanicshop.snapshotRefreshSeconds", DEFAULT_REFRESH_SECONDS),
+			Long.getLong("mechanicshop.snapshotRefreshWrites", DEFAULT_REFRESH_WRITES), System.err);
+	}//end fromProperties
+
+	/**
+	 * Method to start refreshing the snapshots, the first time right away.
+	 *
+	 * @param refreshSeconds seconds between refreshes
+	 * @param refreshWrites inserted rows that trigger an early refresh, 0 for none
+	 * @param log where failed refreshes are reported
+	 */
+	public ReportSnapshots(ConnectionPool pool, long refreshSeconds, long refreshWrites, PrintStream log) {
+		if (refreshSeconds <= 0)
+			throw new IllegalArgumentException("the refresh interval must be positive");
+		this._pool = pool;
+		this._log = log;
+		this._refreshWrites = refreshWrites;
+		this._refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "report-snapshots");
+			t.setDaemon(true);
+			return t;
+		});
+		this._refresher.scheduleWithFixedDelay(this::refreshAll, 0, refreshSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Method to find the snapshot serving a report.
+	 *
+	 * @param report a report name, see VIEWS
+	 * @param args the parameters the report is asked for with
+	 * @return the index of the view, -1 when the report must run live
+	 */
+	int find(String report, int... args) {
+		for (int i = 0; i < VIEWS.length; ++i){
+			if (!VIEWS[i][0].equals(report)) continue;
+			if (this._refreshed.get(i) == 0) return -1;
+			int[] params = (int[]) VIEWS[i][5];
+			if (report.equals("most-serviced-cars")) return args.length == 1 && args[0] <= TOP_CARS ? i : -1;
+			return Arrays.equals(params, args) ? i : -1;
+		}//end for
+		return -1;
+	}//end find
+
+	/**
+	 * @return the query serving the report of a view
+	 */
+	static String query(int view) {
+		return (String) VIEWS[view][4];
+	}
+
+	/**
+	 * @return when the snapshot of a view was taken, in milliseconds since
+	 *         the epoch, 0 while it has none
+	 */
+	long refreshed(int view) {
+		return this._refreshed.get(view);
+	}
+
+	/**
+	 * Method to stop serving a view until it is refreshed again, e.g.
+	 * after it was found missing.
+	 */
+	void invalidate(int view) {
+		this._refreshed.set(view, 0);
+		if (this._refreshQueued.compareAndSet(false, true))
+			this._refresher.execute(this::refreshAll);
+	}//end invalidate
+
+	/**
+	 * Method to count inserted rows and queue a refresh once there are
+	 * refreshWrites of them.  Cheap, called after every insert.
+	 */
+	public void wrote(long rows) {
+		if (this._refreshWrites <= 0 || rows <= 0) return;
+		if (this._writes.addAndGet(rows) >= this._refreshWrites && this._refreshQueued.compareAndSet(false, true))
+			this._refresher.execute(this::refreshAll);
+	}//end wrote
+
+	/**
+	 * Method to refresh every view, one after the other, so only one
+	 * connection of the pool is taken.
+	 */
+	public void refreshAll() {
+		this._refreshQueued.set(false);
+		this._writes.set(0);
+		for (int i = 0; i < VIEWS.length; ++i){
+			try{
+				refresh(i);
+			}catch (SQLException | RuntimeException e){
+				this._log.println(LocalDateTime.now() + " report snapshot " + VIEWS[i][1] + " not refreshed: " + e.getMessage());
+			}//end try
+		}//end for
+	}//end refreshAll
+
+	/**
+	 * Method to refresh one view, creating it if it is missing.  The
+	 * snapshot is as of the start of the refresh.
+	 */
+	private void refresh(int view) throws SQLException {
+		String name = (String) VIEWS[view][1];
+		long taken = System.currentTimeMillis();
+		String sql = "REFRESH MATERIALIZED VIEW CONCURRENTLY " + name;
+		long start = System.nanoTime();
+		boolean failed = true;
+		PooledConnection conn = this._pool.acquire();
+		try (Statement stmt = conn.connection().createStatement()){
+			// a view created now holds the rows of now, nothing to refresh
+			if (!exists(stmt, name)){
+				sql = "CREATE MATERIALIZED VIEW " + name + " AS " + VIEWS[view][2];
+				stmt.execute(sql);
+				stmt.execute("CREATE UNIQUE INDEX " + name + "_in ON " + name + " (" + VIEWS[view][3] + ")");
+			}else{
+				stmt.execute(sql);
+			}//end if
+			failed = false;
+		}catch (SQLException e){
+			conn.failed(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+			this._pool.metrics().statement(sql).record(System.nanoTime() - start, failed ? -1 : 0, 0, failed);
+		}//end try
+		this._refreshed.set(view, taken);
+	}//end refresh
+
+	private static boolean exists(Statement stmt, String view) throws SQLException {
+		java.sql.ResultSet rs = stmt.executeQuery("SELECT to_regclass('" + view + "') IS NOT NULL");
+		rs.next();
+		boolean exists = rs.getBoolean(1);
+		rs.close();
+		return exists;
+	}//end exists
+
+	/**
+	 * Method to stop refreshing.  The views stay for the next start.
+	 */
+	public void close() {
+		this._refresher.shutdownNow();
+	}
+}//end ReportSnapshots
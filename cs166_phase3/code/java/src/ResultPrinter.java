@@ -0,0 +1,129 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class prints a result set as a fixed-width table through a large
+ * output buffer.  Column widths come from the result set metadata, so
+ * rows can be written as they are fetched without looking at the whole
+ * result first.  Values wider than their column are printed in full.
+ */
+public class ResultPrinter {
+	//widest column printed for unbounded types such as TEXT
+	public static final int MAX_COLUMN_WIDTH = 40;
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	protected final Writer _writer;
+	//characters of the values fetched so far
+	private long _bytes = 0;
+
+	public ResultPrinter(OutputStream out) {
+		this._writer = new BufferedWriter(new OutputStreamWriter(out), BUFFER_SIZE);
+	}
+
+	/**
+	 * Method to print every remaining row of a result set.  The header is
+	 * printed before the first row; an empty result prints nothing.
+	 *
+	 * @param rs the result set, positioned before its first row
+	 * @return the number of rows printed
+	 * @throws java.sql.SQLException when fetching a row failed
+	 * @throws java.io.IOException when the output could not be written
+	 */
+	public int print(ResultSet rs) throws SQLException, IOException {
+		ResultSetMetaData rsmd = rs.getMetaData ();
+		int numCol = rsmd.getColumnCount ();
+		int[] width = columnWidths (rsmd);
+		int rowCount = 0;
+
+		while (rs.next ()){
+			if (rowCount == 0){
+				for (int i = 1; i <= numCol; ++i)
+					cell (rsmd.getColumnName (i), width[i - 1], i == numCol);
+			}//end if
+			for (int i = 1; i <= numCol; ++i)
+				cell (value (rs, i), width[i - 1], i == numCol);
+			++rowCount;
+		}//end while
+		this._writer.flush ();
+		return rowCount;
+	}//end print
+
+	/**
+	 * Method to print rows that are already in memory, in the same layout
+	 * as a result set.
+	 *
+	 * @param header the column names
+	 * @param width the width of each column
+	 * @param types the java.sql.Types of each column, as the result set
+	 *        metadata gives them
+	 * @param rows the rows, one value per column
+	 * @return the number of rows printed
+	 * @throws java.io.IOException when the output could not be written
+	 */
+	public int print(String[] header, int[] width, int[] types, List<String[]> rows) throws IOException {
+		int numCol = header.length;
+		for (int r = 0; r < rows.size (); ++r){
+			if (r == 0){
+				for (int i = 0; i < numCol; ++i)
+					cell (header[i], Math.max (width[i], header[i].length ()), i == numCol - 1);
+			}//end if
+			String[] row = rows.get (r);
+			for (int i = 0; i < numCol; ++i)
+				cell (row[i], Math.max (width[i], header[i].length ()), i == numCol - 1);
+		}//end for
+		this._writer.flush ();
+		return rows.size ();
+	}//end print
+
+	/**
+	 * @return the characters of the values fetched from result sets so far,
+	 *         an estimate of the bytes read from the database
+	 */
+	public long bytes() {
+		return this._bytes;
+	}
+
+	/**
+	 * Method to fetch a value of the current row as a string and count its
+	 * characters.
+	 */
+	protected String value(ResultSet rs, int column) throws SQLException {
+		String value = rs.getString (column);
+		if (value != null) this._bytes += value.length ();
+		return value;
+	}
+
+	/**
+	 * Method to size each column to the larger of its name and its
+	 * declared display size, capped at MAX_COLUMN_WIDTH.
+	 */
+	static int[] columnWidths(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount ();
+		int[] width = new int[numCol];
+		for (int i = 1; i <= numCol; ++i){
+			int display = rsmd.getColumnDisplaySize (i);
+			if (display <= 0 || display > MAX_COLUMN_WIDTH) display = MAX_COLUMN_WIDTH;
+			width[i - 1] = Math.max (display, rsmd.getColumnName (i).length ());
+		}//end for
+		return width;
+	}//end columnWidths
+
+	private void cell(String value, int width, boolean last) throws IOException {
+		if (value == null) value = "null";
+		this._writer.write (value);
+		if (last){
+			this._writer.write ('\n');
+			return;
+		}//end if
+		for (int pad = width - value.length (); pad > 0; --pad)
+			this._writer.write (' ');
+		this._writer.write (' ');
+	}
+}//end ResultPrinter
@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * This class keeps the number of service requests of every car in memory,
+ * ordered from the most to the least serviced, so the k most serviced cars
+ * are read off the front of a sorted set instead of grouping the whole of
+ * Service_Request.
+ *
+ * The counts are loaded from Car_Service_Count (maintained by a trigger,
+ * see create.sql) when the program starts and are incremented after every
+ * service request this program inserts.  Requests inserted by other
+ * programs are only seen after a reload; the check command reports such
+ * differences.
+ */
+public class ServiceCounter {
+	/**
+	 * Service count of one car, with the columns the report prints.
+	 */
+	static final class Entry implements Comparable<Entry> {
+		final String vin;
+		final String make;
+		final String model;
+		final long count;
+
+		Entry(String vin, String make, String model, long count) {
+			this.vin = vin;
+			this.make = make;
+			this.model = model;
+			this.count = count;
+		}
+
+		// most serviced first, ties in VIN order
+		public int compareTo(Entry other) {
+			if (this.count != other.count) return this.count > other.count ? -1 : 1;
+			return this.vin.compareTo(other.vin);
+		}
+	}
+
+	private final TreeSet<Entry> _ranking = new TreeSet<Entry>();
+	private final Map<String, Entry> _byVin = new HashMap<String, Entry>();
+	//false until load() ran; counts are not kept before that
+	private boolean _loaded = false;
+
+	/**
+	 * Method to replace every count with the rows of a query returning
+	 * vin, make, model and count, in that order.
+	 *
+	 * @param rows the result of the query
+	 */
+	public synchronized void load(ColumnarResult rows) {
+		this._ranking.clear();
+		this._byVin.clear();
+		for (int i = 0; i < rows.rowCount(); ++i)
+			put(new Entry(rows.getString(i, 0), rows.getString(i, 1), rows.getString(i, 2), rows.getLong(i, 3)));
+		this._loaded = true;
+	}//end load
+
+	public synchronized boolean isLoaded() {
+		return this._loaded;
+	}
+
+	/**
+	 * Method to count one more service request of a car.
+	 *
+	 * @return false if the car has no count yet; add() must be called with
+	 *         its make and model instead
+	 */
+	public synchronized boolean increment(String vin) {
+		if (!this._loaded) return true;
+		Entry old = this._byVin.get(vin);
+		if (old == null) return false;
+		this._ranking.remove(old);
+		put(new Entry(vin, old.make, old.model, old.count + 1));
+		return true;
+	}//end increment
+
+	/**
+	 * Method to add delta service requests to a car, starting its count if
+	 * it has none.
+	 */
+	public synchronized void add(String vin, String make, String model, long delta) {
+		if (!this._loaded) return;
+		Entry old = this._byVin.get(vin);
+		if (old != null) this._ranking.remove(old);
+		put(new Entry(vin, make, model, (old == null ? 0 : old.count) + delta));
+	}//end add
+
+	/**
+	 * Method to list the k most serviced cars.
+	 *
+	 * @return make, model and count of at most k cars, most serviced first
+	 */
+	public synchronized List<String[]> top(int k) {
+		List<String[]> top = new ArrayList<String[]>(Math.max(0, Math.min(k, this._ranking.size())));
+		Iterator<Entry> it = this._ranking.iterator();
+		while (top.size() < k && it.hasNext()){
+			Entry e = it.next();
+			top.add(new String[] { e.make, e.model, Long.toString(e.count) });
+		}//end while
+		return top;
+	}//end top
+
+	/**
+	 * Method to snapshot the count of every car.
+	 */
+	public synchronized Map<String, Long> counts() {
+		Map<String, Long> counts = new HashMap<String, Long>(this._byVin.size() * 2);
+		for (Entry e : this._byVin.values())
+			counts.put(e.vin, e.count);
+		return counts;
+	}//end counts
+
+	private void put(Entry e) {
+		this._byVin.put(e.vin, e);
+		this._ranking.add(e);
+	}
+}//end ServiceCounter
@@ -0,0 +1,214 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class logs the statements that ran longer than a threshold, with
+ * their parameters and the plan Postgres chose for them, to a local file
+ * that is rotated when it grows past MAX_BYTES.
+ *
+ * The plan is captured after the fact, on a background thread with a
+ * connection of its own outside the pool, so the slow call returns as
+ * soon as it would have anyway and a long EXPLAIN ANALYZE never holds a
+ * connection the sessions wait for.  Queries (SELECT, WITH) are run again under
+ * EXPLAIN (ANALYZE, BUFFERS) to show actual row counts, timings and
+ * buffer hits; writes only get a plain EXPLAIN, since running them again
+ * would fail on their own keys.  Everything runs in a transaction that is
+ * rolled back.  A SQL template is explained at most once per
+ * EXPLAIN_INTERVAL_MILLIS, and captures that cannot be queued are dropped,
+ * so a storm of slow statements does not double the load on the database.
+ *
+ * Configured with the system properties mechanicshop.slowQueryMillis
+ * (default 1000, negative to turn the log off) and
+ * mechanicshop.slowQueryLog (default slow-queries.log).
+ */
+public class SlowQueryLog {
+	public static final long MAX_BYTES = 10L << 20;
+	//rotated files kept besides the current one: log.1 ... log.KEEP
+	public static final int KEEP = 5;
+	public static final long EXPLAIN_INTERVAL_MILLIS = 60000;
+	//captures waiting for the background thread
+	public static final int QUEUE_SIZE = 64;
+	//how long an EXPLAIN ANALYZE may run
+	public static final int EXPLAIN_TIMEOUT_SECONDS = 60;
+
+	private final ConnectionPool _pool;
+	private final File _file;
+	private final long _thresholdNanos;
+	//when each SQL template was last explained
+	private final ConcurrentHashMap<String, Long> _explained = new ConcurrentHashMap<String, Long>();
+	private final ThreadPoolExecutor _explainer;
+	//connection of the background thread, opened on first use
+	private PooledConnection _conn = null;
+	private Writer _out = null;
+	private long _size = 0;
+
+	/**
+	 * @param pool opens the connection of the EXPLAINs
+	 * @param file the log file
+	 * @param thresholdMillis statements running longer are logged
+	 */
+	public SlowQueryLog(ConnectionPool pool, File file, long thresholdMillis) {
+		this._pool = pool;
+		this._file = file;
+		this._thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+		this._explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), r -> {
+			Thread t = new Thread(r, "slow-query-explainer");
+			t.setDaemon(true);
+			return t;
+		}, new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	/**
+	 * Method to create the log configured by the system properties.
+	 *
+	 * @return the log, null when it is turned off
+	 */
+	public static SlowQueryLog fromProperties(ConnectionPool pool) {
+		long threshold = Long.getLong("mechanicshop.slowQueryMillis", 1000);
+		if (threshold < 0) return null;
+		return new SlowQueryLog(pool, new File(System.getProperty("mechanicshop.slowQueryLog", "slow-queries.log")), threshold);
+	}//end fromProperties
+
+	/**
+	 * Method to look at a statement that just ran and log it if it was
+	 * slow.  Cheap when it was not.
+	 *
+	 * @param sql the statement with ? placeholders
+	 * @param params the values bound to the placeholders
+	 * @param nanos how long it ran
+	 * @param rowCount rows fetched or written, -1 if it failed
+	 */
+	public void check(String sql, Object[] params, long nanos, int rowCount) {
+		if (nanos < this._thresholdNanos) return;
+		final Object[] values = params.clone();
+		final String time = LocalDateTime.now().toString();
+		this._explainer.execute(() -> capture(time, sql, values, nanos, rowCount));
+	}//end check
+
+	private void capture(String time, String sql, Object[] params, long nanos, int rowCount) {
+		StringBuilder entry = new StringBuilder();
+		entry.append(time).append(String.format(" slow statement: %.1f ms, ", nanos / 1e6))
+			.append(rowCount < 0 ? "failed" : rowCount + " rows").append('\n');
+		entry.append("sql: ").append(sql).append('\n');
+		entry.append("params: ").append(parameters(params)).append('\n');
+		long now = System.currentTimeMillis();
+		Long last = this._explained.get(sql);
+		if (last != null && now - last < EXPLAIN_INTERVAL_MILLIS){
+			entry.append("plan: see the entry of ").append(new java.sql.Timestamp(last)).append('\n');
+		}else if (explain(entry, sql, params)){
+			this._explained.put(sql, now);
+		}//end if
+		write(entry.append('\n').toString());
+	}//end capture
+
+	/**
+	 * Method to append the plan of a statement, or why there is none.
+	 *
+	 * @return true if the plan was captured
+	 */
+	private boolean explain(StringBuilder entry, String sql, Object[] params) {
+		String statement = sql.trim();
+		if (statement.endsWith(";")) statement = statement.substring(0, statement.length() - 1);
+		String verb = statement.length() < 4 ? statement : statement.substring(0, 4).toUpperCase();
+		boolean query = verb.equals("SELE") || verb.equals("WITH");
+		entry.append(query ? "plan (EXPLAIN ANALYZE, BUFFERS):\n" : "plan (EXPLAIN, not run again):\n");
+		PooledConnection conn;
+		try{
+			conn = connection();
+		}catch (SQLException e){
+			entry.append("  no connection: ").append(e.getMessage()).append('\n');
+			return false;
+		}//end try
+		try{
+			// reset() rolls back what ANALYZE did
+			conn.connection().setAutoCommit(false);
+			try (Statement timeout = conn.connection().createStatement()){
+				timeout.execute("SET LOCAL statement_timeout = '" + EXPLAIN_TIMEOUT_SECONDS + "s'");
+			}//end try
+			try (PreparedStatement stmt = conn.connection().prepareStatement((query ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + statement)){
+				MechanicShop.bind(stmt, params);
+				ResultSet rs = stmt.executeQuery();
+				while (rs.next())
+					entry.append("  ").append(rs.getString(1)).append('\n');
+				rs.close();
+			}//end try
+			return true;
+		}catch (SQLException e){
+			conn.failed(e);
+			entry.append("  EXPLAIN failed: ").append(e.getMessage()).append('\n');
+			return false;
+		}finally{
+			if (!conn.reset()){
+				conn.close();
+				this._conn = null;
+			}//end if
+		}//end try
+	}//end explain
+
+	/**
+	 * Method to get the connection of the background thread, opening it
+	 * again when it broke or went stale.
+	 */
+	private PooledConnection connection() throws SQLException {
+		if (this._conn != null && !this._conn.isHealthy(ConnectionPool.IDLE_CHECK_MILLIS)){
+			this._conn.close();
+			this._conn = null;
+		}//end if
+		if (this._conn == null) this._conn = this._pool.open();
+		return this._conn;
+	}//end connection
+
+	private static String parameters(Object[] params) {
+		StringBuilder out = new StringBuilder("[");
+		for (int i = 0; i < params.length; ++i){
+			if (i > 0) out.append(", ");
+			if (params[i] == null) out.append("null");
+			else if (params[i] instanceof Number) out.append(params[i]);
+			else out.append('\'').append(params[i].toString().replace("'", "''")).append('\'');
+		}//end for
+		return out.append(']').toString();
+	}//end parameters
+
+	/**
+	 * Method to append an entry, rotating the file first when it is full.
+	 * Only the background thread writes.
+	 */
+	private void write(String entry) {
+		try{
+			if (this._out == null || this._size >= MAX_BYTES){
+				if (this._out != null){
+					this._out.close();
+					rotate();
+				}//end if
+				this._out = new OutputStreamWriter(new FileOutputStream(this._file, true), StandardCharsets.UTF_8);
+				this._size = this._file.length();
+			}//end if
+			this._out.write(entry);
+			this._out.flush();
+			this._size += entry.length();
+		}catch (IOException e){
+			System.err.println("Unable to write the slow query log: " + e.getMessage());
+			this._out = null;
+		}//end try
+	}//end write
+
+	private void rotate() {
+		new File(this._file.getPath() + "." + KEEP).delete();
+		for (int i = KEEP - 1; i >= 1; --i)
+			new File(this._file.getPath() + "." + i).renameTo(new File(this._file.getPath() + "." + (i + 1)));
+		this._file.renameTo(new File(this._file.getPath() + ".1"));
+	}//end rotate
+}//end SlowQueryLog
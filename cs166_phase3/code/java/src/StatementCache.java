@@ -0,0 +1,82 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the prepared statements of one connection, keyed by
+ * their SQL text, so a query that runs over and over is parsed and planned
+ * by the DBMS only once.  When more than capacity statements are cached
+ * the least recently used one is closed, which also deallocates it on the
+ * server.
+ */
+public class StatementCache {
+	public static final int DEFAULT_CAPACITY = 64;
+
+	//connection the cached statements belong to
+	private final Connection _connection;
+	//SQL text -> statement, in access order
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	public StatementCache(Connection connection, final int capacity) {
+		this._connection = connection;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= capacity) return false;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Method to get the prepared statement for a SQL string, preparing it
+	 * on first use.
+	 *
+	 * @param sql the input SQL string with ? placeholders
+	 * @return a statement with its parameters cleared
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt == null || stmt.isClosed()) {
+			stmt = this._connection.prepareStatement(sql);
+			this._statements.put(sql, stmt);
+		}else{
+			stmt.clearParameters();
+		}//end if
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to drop a statement from the cache, e.g. after it failed and
+	 * may have been left in a bad state.
+	 *
+	 * @param sql the SQL string the statement was prepared for
+	 */
+	public synchronized void evict(String sql) {
+		closeQuietly(this._statements.remove(sql));
+	}//end evict
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public synchronized void close() {
+		Iterator<PreparedStatement> it = this._statements.values().iterator();
+		while (it.hasNext()) {
+			closeQuietly(it.next());
+			it.remove();
+		}//end while
+	}//end close
+
+	private static void closeQuietly(PreparedStatement stmt) {
+		try{
+			if (stmt != null) stmt.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+}//end StatementCache
@@ -0,0 +1,181 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class groups related writes into one transaction on one pooled
+ * connection.  Writes are not sent one by one: consecutive rows of the
+ * same statement are collected with addBatch() and sent together when the
+ * next statement starts, on flush() or on commit().  With
+ * reWriteBatchedInserts (see the connection URL in MechanicShop) the
+ * driver turns a batch of INSERTs into multi-row INSERTs.
+ *
+ * Statements run in the order they were added, so a row can reference a
+ * row added before it.  Typical use:
+ *
+ *	UnitOfWork work = esql.beginWork();
+ *	try{
+ *		work.add("INSERT INTO Car ...", vin, make, model, year);
+ *		work.add("INSERT INTO Owns ...", ownershipId, customerId, vin);
+ *		work.commit();
+ *	}finally{
+ *		work.close();
+ *	}
+ *
+ * A unit of work is used by one thread.  Closing it without commit() rolls
+ * everything back.
+ */
+public class UnitOfWork implements AutoCloseable {
+	/**
+	 * Rows of one statement waiting to be sent.
+	 */
+	private static class Batch {
+		final String sql;
+		final PreparedStatement stmt;
+		int rows = 0;
+
+		Batch(String sql, PreparedStatement stmt) {
+			this.sql = sql;
+			this.stmt = stmt;
+		}
+	}
+
+	private final ConnectionPool _pool;
+	private PooledConnection _conn;
+	//batches not sent yet, in the order they were started
+	private final List<Batch> _pending = new ArrayList<Batch>();
+	//rows written by every row sent so far, in the order the rows were added
+	private final List<Integer> _rowCounts = new ArrayList<Integer>();
+
+	UnitOfWork(ConnectionPool pool) throws SQLException {
+		this._pool = pool;
+		this._conn = pool.acquire();
+		try{
+			this._conn.connection().setAutoCommit(false);
+		}catch (SQLException e){
+			this._conn.failed(e);
+			close();
+			throw e;
+		}//end try
+	}
+
+	/**
+	 * Method to add one row of a write statement (INSERT, UPDATE, ...).
+	 *
+	 * @param sql the statement with ? placeholders
+	 * @param params the values bound to the placeholders, in order
+	 */
+	public void add(String sql, Object... params) throws SQLException {
+		if (this._conn == null) throw new IllegalStateException("unit of work is closed");
+		Batch last = this._pending.isEmpty() ? null : this._pending.get(this._pending.size() - 1);
+		if (last == null || !last.sql.equals(sql)){
+			// a statement is one batch at a time; send the earlier one first
+			for (Batch b : this._pending){
+				if (b.sql.equals(sql)){
+					flush();
+					break;
+				}//end if
+			}//end for
+			try{
+				last = new Batch(sql, this._conn.statements().prepare(sql));
+			}catch (SQLException e){
+				failed(sql, e);
+				throw e;
+			}//end try
+			this._pending.add(last);
+		}//end if
+		try{
+			MechanicShop.bind(last.stmt, params);
+			last.stmt.addBatch();
+			++last.rows;
+		}catch (SQLException e){
+			failed(sql, e);
+			throw e;
+		}//end try
+	}//end add
+
+	/**
+	 * Method to send every pending batch, in order, without committing.
+	 */
+	public void flush() throws SQLException {
+		for (Batch b : this._pending){
+			long start = System.nanoTime();
+			int rows = -1;
+			try{
+				rows = 0;
+				for (int count : b.stmt.executeBatch()){
+					// rewritten multi-row INSERTs report SUCCESS_NO_INFO per row
+					this._rowCounts.add(count == java.sql.Statement.SUCCESS_NO_INFO ? 1 : count);
+					rows += count == java.sql.Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+				}//end for
+			}catch (SQLException e){
+				// the whole transaction is lost; drop the other batches too
+				for (Batch other : this._pending) clearQuietly(other.stmt);
+				this._pending.clear();
+				failed(b.sql, e);
+				rows = -1;
+				throw e;
+			}finally{
+				this._pool.metrics().statement(b.sql).record(System.nanoTime() - start, rows, 0, rows < 0);
+			}//end try
+		}//end for
+		this._pending.clear();
+	}//end flush
+
+	/**
+	 * Method to send what is pending and commit the transaction.  The
+	 * connection goes back to the pool.
+	 *
+	 * @throws java.sql.SQLException when a statement or the commit failed;
+	 *         nothing was written then
+	 */
+	public void commit() throws SQLException {
+		if (this._conn == null) throw new IllegalStateException("unit of work is closed");
+		flush();
+		try{
+			this._conn.connection().commit();
+		}catch (SQLException e){
+			this._conn.failed(e);
+			throw e;
+		}finally{
+			close();
+		}//end try
+	}//end commit
+
+	/**
+	 * Method to get the number of rows each added row wrote, once sent,
+	 * e.g. 0 for an INSERT ... SELECT ... WHERE that inserted nothing.
+	 *
+	 * @return one count per row sent so far, in the order they were added
+	 */
+	public List<Integer> rowCounts() {
+		return this._rowCounts;
+	}
+
+	/**
+	 * Method to give the connection back to the pool.  Unless commit()
+	 * succeeded, everything added is rolled back.
+	 */
+	public void close() {
+		if (this._conn == null) return;
+		for (Batch b : this._pending) clearQuietly(b.stmt);
+		this._pending.clear();
+		// the pool rolls back and restores autocommit
+		this._pool.release(this._conn);
+		this._conn = null;
+	}//end close
+
+	private void failed(String sql, SQLException e) {
+		this._conn.statements().evict(sql);
+		this._conn.failed(e);
+	}
+
+	private static void clearQuietly(PreparedStatement stmt) {
+		try{
+			stmt.clearBatch();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+}//end UnitOfWork
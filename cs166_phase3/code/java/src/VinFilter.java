@@ -0,0 +1,127 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a Bloom filter over the VINs of all cars.  A VIN the filter
+ * has never seen is certainly new, so checking it needs no query; only
+ * VINs the filter may contain are looked up in Car.
+ *
+ * The filter is sized for twice the cars it was loaded with at a 1% false
+ * positive rate, about 2.4 bytes per car.  It only knows the cars loaded at
+ * startup and those this program added; the primary key of Car still
+ * rejects a VIN another program inserted meanwhile.
+ */
+public class VinFilter {
+	public static final double FALSE_POSITIVE_RATE = 0.01;
+	public static final int MIN_BITS = 1 << 16;
+
+	private final AtomicLongArray _bits;
+	private final long _size;
+	private final int _hashes;
+	//VINs added; past capacity the false positive rate goes up
+	private final AtomicLong _count = new AtomicLong();
+	private final long _capacity;
+	//set once a session started loading the filter replacing this one
+	private final AtomicBoolean _reloading = new AtomicBoolean();
+	//filter being loaded in place of this one; added VINs go to both
+	private volatile VinFilter _next;
+
+	/**
+	 * @param capacity the number of VINs the filter is sized for
+	 */
+	public VinFilter(long capacity) {
+		this._capacity = Math.max(1, capacity);
+		long bits = (long) Math.ceil(-this._capacity * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+		bits = Math.max(MIN_BITS, (bits + 63) & ~63L);
+		this._bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE - 8, bits >>> 6));
+		this._size = (long) this._bits.length() << 6;
+		this._hashes = Math.max(1, (int) Math.round((double) this._size / this._capacity * Math.log(2)));
+	}
+
+	/**
+	 * Method to add a VIN.
+	 */
+	public void add(String vin) {
+		long h1 = hash(vin, 0x9E3779B97F4A7C15L);
+		long h2 = hash(vin, 0xC2B2AE3D27D4EB4FL) | 1;
+		for (int i = 0; i < this._hashes; ++i){
+			long bit = Long.remainderUnsigned(h1 + i * h2, this._size);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << (bit & 63);
+			long old;
+			do{
+				old = this._bits.get(word);
+			}while ((old & mask) == 0 && !this._bits.compareAndSet(word, old, old | mask));
+		}//end for
+		this._count.incrementAndGet();
+		VinFilter next = this._next;
+		if (next != null) next.add(vin);
+	}//end add
+
+	/**
+	 * Method to tell whether the VIN may have been added.
+	 *
+	 * @return false if the VIN was certainly never added
+	 */
+	public boolean mightContain(String vin) {
+		long h1 = hash(vin, 0x9E3779B97F4A7C15L);
+		long h2 = hash(vin, 0xC2B2AE3D27D4EB4FL) | 1;
+		for (int i = 0; i < this._hashes; ++i){
+			long bit = Long.remainderUnsigned(h1 + i * h2, this._size);
+			if ((this._bits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) return false;
+		}//end for
+		return true;
+	}//end mightContain
+
+	/**
+	 * Method to tell whether more VINs were added than the filter is sized
+	 * for, in which case it should be reloaded.
+	 */
+	public boolean isFull() {
+		return this._count.get() > this._capacity;
+	}
+
+	/**
+	 * Method to claim the reload of a full filter, so only one session
+	 * reloads it.
+	 *
+	 * @return true for the first caller, until release()
+	 */
+	boolean claimReload() {
+		return this._reloading.compareAndSet(false, true);
+	}
+
+	/**
+	 * Method to give the reload up after it failed, so the next VIN added
+	 * tries again.
+	 */
+	void release() {
+		this._next = null;
+		this._reloading.set(false);
+	}
+
+	/**
+	 * Method to add every VIN added from now on to the filter replacing
+	 * this one as well, so the VINs inserted while it is loaded are not
+	 * missing from it.
+	 */
+	void forward(VinFilter next) {
+		this._next = next;
+	}
+
+	private static long hash(String vin, long seed) {
+		long h = seed ^ vin.length();
+		for (int i = 0; i < vin.length(); ++i){
+			h ^= vin.charAt(i);
+			h *= 0x100000001B3L;
+		}//end for
+		// final mix so that every input bit reaches every output bit
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}//end hash
+}//end VinFilter
@@ -4,8 +4,32 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+-- left behind by the partition command of the application, see PartitionMigration.java
+DROP TABLE IF EXISTS Service_Request_unpartitioned CASCADE;
+DROP TABLE IF EXISTS Closed_Request_unpartitioned CASCADE;
+DROP TABLE IF EXISTS Service_Request_p CASCADE;
+DROP TABLE IF EXISTS Closed_Request_p CASCADE;
+DROP FUNCTION IF EXISTS service_request_mirror() CASCADE;
+DROP FUNCTION IF EXISTS closed_request_mirror() CASCADE;
+-- report snapshots of the application, see ReportSnapshots.java; created again when missing
+DROP MATERIALIZED VIEW IF EXISTS Bills_Snapshot;
+DROP MATERIALIZED VIEW IF EXISTS Customers_With_Cars_Snapshot;
+DROP MATERIALIZED VIEW IF EXISTS Old_Cars_Snapshot;
+DROP MATERIALIZED VIEW IF EXISTS Most_Serviced_Cars_Snapshot;
+-- no longer created, dropped where an older version left it
+DROP MATERIALIZED VIEW IF EXISTS Customers_By_Total_Bill_Snapshot;
+DROP TABLE IF EXISTS Customer_Bill CASCADE;--OK
+DROP FUNCTION IF EXISTS customer_bill_add() CASCADE;--OK
+DROP TABLE IF EXISTS Car_Service_Count CASCADE;--OK
+DROP FUNCTION IF EXISTS car_service_count_add() CASCADE;--OK
 
 
+----------------
+---EXTENSIONS---
+----------------
+-- trigram indexes for prefix and similarity searches on customer names
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
 -------------
 ---DOMAINS---
 -------------
@@ -88,6 +112,69 @@ CREATE TABLE Closed_Request
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
 );
 
+---------------
+---SUMMARIES---
+---------------
+-- Total bill of every customer with a closed request, kept up to date by
+-- the trigger below so report 10 does not re-aggregate Closed_Request.
+-- Closed requests are never updated or deleted by the application.
+CREATE TABLE Customer_Bill
+(
+	customer_id INTEGER NOT NULL,
+	total BIGINT NOT NULL,
+	PRIMARY KEY (customer_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id)
+);
+
+-- Runs once per INSERT or COPY statement: the new rows are summed per
+-- customer and added in customer order, in the inserting transaction.
+CREATE FUNCTION customer_bill_add() RETURNS TRIGGER AS $$
+BEGIN
+	INSERT INTO Customer_Bill (customer_id, total)
+	SELECT SR.customer_id, SUM(N.bill)
+	FROM new_rows AS N, Service_Request AS SR
+	WHERE N.rid = SR.rid
+	GROUP BY SR.customer_id
+	ORDER BY SR.customer_id
+	ON CONFLICT (customer_id) DO UPDATE SET total = Customer_Bill.total + EXCLUDED.total;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER Closed_Request_bill
+AFTER INSERT ON Closed_Request
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE PROCEDURE customer_bill_add();
+
+-- Number of service requests of every serviced car, for report 9 (see
+-- ServiceCounter.java).  Service requests are never deleted either.
+CREATE TABLE Car_Service_Count
+(
+	car_vin VARCHAR(16) NOT NULL,
+	requests INTEGER NOT NULL,
+	PRIMARY KEY (car_vin),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+);
+
+CREATE FUNCTION car_service_count_add() RETURNS TRIGGER AS $$
+BEGIN
+	INSERT INTO Car_Service_Count (car_vin, requests)
+	SELECT N.car_vin, COUNT(*)
+	FROM new_rows AS N
+	GROUP BY N.car_vin
+	ORDER BY N.car_vin
+	ON CONFLICT (car_vin) DO UPDATE SET requests = Car_Service_Count.requests + EXCLUDED.requests;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER Service_Request_count
+AFTER INSERT ON Service_Request
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE PROCEDURE car_service_count_add();
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
@@ -154,10 +241,28 @@ WITH DELIMITER ',';
 --        indexes           --
 ------------------------------
 
-CREATE INDEX Customer_in
-ON Customer 
+-- Customer(id) is covered by its primary key.  Customers are looked up
+-- by exact name, by name or phone prefix and by similar last name (see
+-- the customer searches in MechanicShop.java).
+CREATE INDEX Customer_name_in
+ON Customer
 USING BTREE
-(id);
+(lname, fname);
+
+CREATE INDEX Customer_lname_trgm_in
+ON Customer
+USING GIN
+((lname::text) gin_trgm_ops);
+
+CREATE INDEX Customer_fname_trgm_in
+ON Customer
+USING GIN
+((fname::text) gin_trgm_ops);
+
+CREATE INDEX Customer_phone_trgm_in
+ON Customer
+USING GIN
+((phone::text) gin_trgm_ops);
 
 CREATE INDEX Mechanic_in
 ON Mechanic
@@ -169,17 +274,62 @@ ON Car
 USING BTREE 
 (vin);
 
+-- sort key of the paginated old cars report (MechanicShop.PAGE_CARS_BEFORE_YEAR_UNDER_MILES)
+CREATE INDEX Car_make_model_year_in
+ON Car
+USING BTREE
+(make, model, year);
+
 CREATE INDEX Owns_in
 ON Owns
 USING BTREE 
 (ownership_id);
 
+-- (car_vin, odometer) also answers the last odometer reading of a car
+-- from the index alone, see MechanicShop.lastOdometer()
 CREATE INDEX Service_Request_in
 ON Service_Request
 USING BTREE
- (car_vin);
+ (car_vin, odometer);
  
  CREATE INDEX CR_in
  ON Closed_Request
  USING BTREE 
- (rid);
\ No newline at end of file
+ (rid);
+
+ -- sort key of the paginated bills report (MechanicShop.PAGE_BILL_LESS_THAN)
+ CREATE INDEX Closed_Request_bill_in
+ ON Closed_Request
+ USING BTREE
+ (bill, wid);
+
+ -- customer_id makes it the unique sort key of the paginated total bill report
+ CREATE INDEX Customer_Bill_total_in
+ ON Customer_Bill
+ USING BTREE
+ (total DESC, customer_id DESC);
+
+ CREATE INDEX Car_Service_Count_requests_in
+ ON Car_Service_Count
+ USING BTREE
+ (requests DESC);
+
+------------------------------
+--        sequences         --
+------------------------------
+-- Primary keys for new rows come from these sequences (see IdAllocator.java).
+-- Each nextval reserves a block of INCREMENT BY ids for one client, so the
+-- step is the prefetch size of every terminal.
+
+CREATE SEQUENCE customer_id_seq INCREMENT BY 32 MINVALUE 0 OWNED BY Customer.id;
+CREATE SEQUENCE mechanic_id_seq INCREMENT BY 32 MINVALUE 0 OWNED BY Mechanic.id;
+CREATE SEQUENCE owns_ownership_id_seq INCREMENT BY 32 MINVALUE 0 OWNED BY Owns.ownership_id;
+CREATE SEQUENCE service_request_rid_seq INCREMENT BY 32 MINVALUE 0 OWNED BY Service_Request.rid;
+CREATE SEQUENCE closed_request_wid_seq INCREMENT BY 32 MINVALUE 0 OWNED BY Closed_Request.wid;
+
+-- start every sequence after the rows loaded above
+SELECT setval('customer_id_seq', (SELECT COALESCE(MAX(id), -1) + 1 FROM Customer), false);
+SELECT setval('mechanic_id_seq', (SELECT COALESCE(MAX(id), -1) + 1 FROM Mechanic), false);
+SELECT setval('owns_ownership_id_seq', (SELECT COALESCE(MAX(ownership_id), -1) + 1 FROM Owns), false);
+SELECT setval('service_request_rid_seq', (SELECT COALESCE(MAX(rid), -1) + 1 FROM Service_Request), false);
+SELECT setval('closed_request_wid_seq', (SELECT COALESCE(MAX(wid), -1) + 1 FROM Closed_Request), false);
@@ -17,24 +17,19 @@ FROM Car AS C, Service_Request AS S
 WHERE year < 1995 and S.car_vin = C.vin and S.odometer < 50000;
 
 -- List the make, model and number of service requests for the first k cars with the highest number of service orders.
-SELECT make, model, R.creq
-FROM Car AS C, (
-SELECT car_vin, COUNT(rid) AS creq
-FROM Service_Request
-GROUP BY car_vin ) AS R
-WHERE R.car_vin = C.vin
-ORDER BY R.creq DESC
+-- Car_Service_Count holds the same counts, maintained by a trigger (see create.sql).
+SELECT make, model, S.requests AS creq
+FROM Car_Service_Count AS S, Car AS C
+WHERE C.vin = S.car_vin
+ORDER BY S.requests DESC
 LIMIT 10;
 
 -- List the first name, last name and total bill of customers in order total bill for all car brought to the mechanic.
-SELECT C.fname , C.lname, Total
-FROM Customer AS C,
-(SELECT sr.customer_id, SUM(CR.bill) AS Total
-FROM Closed_Request AS CR, Service_Request AS SR
-WHERE CR.rid = SR.rid
-GROUP BY SR.customer_id) AS A
-WHERE C.id=A.customer_id
-ORDER BY A.Total DESC;
+-- Customer_Bill holds the same totals, maintained by a trigger (see create.sql).
+SELECT C.fname , C.lname, B.total AS Total
+FROM Customer_Bill AS B, Customer AS C
+WHERE C.id = B.customer_id
+ORDER BY B.total DESC;
 
 
 